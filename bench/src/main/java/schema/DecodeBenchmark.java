@@ -0,0 +1,65 @@
+package schema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Decoding a fetched scheme, as done for every scheme that arrives or is read from the disk cache */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+	
+	/** The size of the scheme, as width x height */
+	@Param({"500x480", "1440x880"})
+	public String size;
+	
+	/** If the PNG has a palette, like the ones from novasoftware */
+	@Param({"true", "false"})
+	public boolean indexed;
+	
+	private byte[] png;
+	
+	@Setup
+	public void setup() {
+		String[] dimensions = size.split("x");
+		BufferedImage scheme = SyntheticSchemes.render(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]), 1);
+		
+		if (indexed) {
+			BufferedImage converted = new BufferedImage(scheme.getWidth(), scheme.getHeight(), BufferedImage.TYPE_BYTE_INDEXED);
+			converted.createGraphics().drawImage(scheme, 0, 0, null);
+			scheme = converted;
+		}
+		
+		png = SyntheticSchemes.png(scheme);
+	}
+	
+	@Benchmark
+	public BufferedImage decode() throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(png));
+	}
+	
+	/** Decoding and analyzing, which is what SchemeImage.of costs on a fetched scheme */
+	@Benchmark
+	public SchemeImage decodeAndAnalyze() throws IOException {
+		return SchemeImage.of(ImageIO.read(new ByteArrayInputStream(png)));
+	}
+}
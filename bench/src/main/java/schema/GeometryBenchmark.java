@@ -0,0 +1,71 @@
+package schema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding where things are in a scheme, which is done once for every scheme put in the buffer,
+ * and finding the lessons, which is done for every room in the occupancy index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeometryBenchmark {
+	
+	@Param({"500x480", "1440x880"})
+	public String size;
+	
+	/** The image type the scheme is decoded into */
+	@Param({"BYTE_INDEXED", "INT_ARGB", "3BYTE_BGR"})
+	public String type;
+	
+	private BufferedImage image;
+	private SchemeImage scheme;
+	
+	@Setup
+	public void setup() {
+		String[] dimensions = size.split("x");
+		BufferedImage rendered = SyntheticSchemes.render(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]), 1);
+		
+		int imageType;
+		switch (type) {
+			case "BYTE_INDEXED": imageType = BufferedImage.TYPE_BYTE_INDEXED; break;
+			case "INT_ARGB": imageType = BufferedImage.TYPE_INT_ARGB; break;
+			default: imageType = BufferedImage.TYPE_3BYTE_BGR; break;
+		}
+		
+		image = new BufferedImage(rendered.getWidth(), rendered.getHeight(), imageType);
+		image.createGraphics().drawImage(rendered, 0, 0, null);
+		scheme = SchemeImage.of(image);
+	}
+	
+	@Benchmark
+	public SchemeGeometry analyze() {
+		return SchemeGeometry.analyze(new SchemePixels(image));
+	}
+	
+	@Benchmark
+	public boolean isInvalid() {
+		return SchemeGeometry.isInvalid(new SchemePixels(image));
+	}
+	
+	@Benchmark
+	public SchemeLessons extractLessons() {
+		return SchemeLessons.extract(scheme);
+	}
+}
@@ -0,0 +1,84 @@
+package schema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The now line in <tt>Schema.paintComponent</tt>: finding where it's drawn in a day, both when the
+ * segments are remembered from the last paint and when the time has moved a pixel, and painting
+ * the scheme with the line like a repaint does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NowLineBenchmark {
+	
+	private static final Color LINE_COLOR = new Color(0xffff0000);
+	
+	@Param({"500x480", "1440x880"})
+	public String size;
+	
+	private SchemeImage scheme;
+	private BufferedImage target;
+	private Graphics2D g2d;
+	private int y;
+	
+	@Setup
+	public void setup() {
+		String[] dimensions = size.split("x");
+		scheme = SchemeImage.of(SyntheticSchemes.render(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]), 1));
+		
+		target = new BufferedImage(scheme.image.getWidth(), scheme.image.getHeight() + 19, BufferedImage.TYPE_INT_RGB);
+		g2d = target.createGraphics();
+		y = scheme.geometry.timeStartY + 1;
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		g2d.dispose();
+	}
+	
+	@Benchmark
+	public int[] cachedSegments() {
+		return scheme.geometry.lineSegments(2, y);
+	}
+	
+	/** Every call is a new y, like every minute the line moves a pixel */
+	@Benchmark
+	public int[] movingSegments() {
+		y++;
+		if (y >= scheme.geometry.height) y = scheme.geometry.timeStartY + 1;
+		return scheme.geometry.lineSegments(2, y);
+	}
+	
+	@Benchmark
+	public BufferedImage paint() {
+		g2d.drawImage(scheme.image, 0, 19, null);
+		
+		g2d.setColor(LINE_COLOR);
+		int[] segments = scheme.geometry.lineSegments(2, y);
+		for (int i = 0; i < segments.length; i += 2)
+			g2d.fillRect(segments[i], y + 19, segments[i + 1] - segments[i], 1);
+		
+		return target;
+	}
+}
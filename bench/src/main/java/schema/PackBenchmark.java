@@ -0,0 +1,55 @@
+package schema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing a week when it stops being pinned in the buffer, and unpacking it when it's shown again,
+ * which is what going to a week that has been buffered for a while costs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PackBenchmark {
+	
+	@Param({"500x480", "1440x880"})
+	public String size;
+	
+	@Param({"false", "true"})
+	public boolean offHeap;
+	
+	private SchemeImage scheme;
+	private PackedScheme packed;
+	
+	@Setup
+	public void setup() {
+		String[] dimensions = size.split("x");
+		scheme = SchemeImage.of(SyntheticSchemes.render(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]), 1));
+		packed = PackedScheme.pack(scheme, offHeap);
+	}
+	
+	@Benchmark
+	public PackedScheme pack() {
+		return PackedScheme.pack(scheme, offHeap);
+	}
+	
+	@Benchmark
+	public SchemeImage unpack() {
+		return packed.unpack((width, height) -> new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+	}
+}
@@ -0,0 +1,131 @@
+package schema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Fetching a scheme from the stand-in server, keeping it in the disk cache, decoding and analyzing it
+ * and painting it, like loading a week the first time. Loading it again from the disk cache is measured
+ * too. Run with more threads to load test the client.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+	
+	/** The number of milliseconds the server waits before answering */
+	@Param({"0", "50"})
+	public long latency;
+	
+	/** The part of the answers that are errors, which the client tries again */
+	@Param({"0", "0.1"})
+	public double errorRate;
+	
+	private StandInServer server;
+	private SchemeClient client;
+	private SchemeDiskCache diskCache;
+	private ExecutorService executor;
+	private Path cacheDir;
+	
+	/** Makes every fetch a new week, so that nothing is cached between them */
+	private final AtomicInteger weeks = new AtomicInteger();
+	
+	@Setup
+	public void setup() throws IOException {
+		server = new StandInServer(null, latency, errorRate);
+		server.start(0);
+		
+		executor = Executors.newFixedThreadPool(8, r -> {
+			Thread t = new Thread(r, "fetch");
+			t.setDaemon(true);
+			return t;
+		});
+		client = new SchemeClient(executor, 8, 5000, 5, new SchemeClient.StatusListener() {
+			@Override
+			public void failed(Throwable cause, long retryIn) {}
+			
+			@Override
+			public void recovered() {}
+		});
+		
+		cacheDir = Files.createTempDirectory("scheme-bench");
+		diskCache = new SchemeDiskCache(cacheDir, 200L * 1024 * 1024, Long.MAX_VALUE);
+		
+		// something to load from the disk cache
+		SchemeKey key = new SchemeKey("NA17A", 2018, 1, 0, 500, 480);
+		diskCache.put(key, client.fetch(url(key)).join());
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		server.stop();
+		executor.shutdownNow();
+		
+		try (Stream<Path> files = Files.walk(cacheDir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+	
+	@Benchmark
+	public BufferedImage fetchAndPaint() throws IOException {
+		SchemeKey key = new SchemeKey("NA17A", 2018, weeks.incrementAndGet(), 0, 500, 480);
+		
+		byte[] data = client.fetch(url(key)).join();
+		diskCache.put(key, data);
+		return paint(data);
+	}
+	
+	@Benchmark
+	public BufferedImage loadCachedAndPaint() throws IOException {
+		return paint(diskCache.get(new SchemeKey("NA17A", 2018, 1, 0, 500, 480)));
+	}
+	
+	private String url(SchemeKey key) {
+		return String.format(server.formattingString(), key.id, key.week, key.day, key.width, key.height);
+	}
+	
+	private static BufferedImage paint(byte[] data) throws IOException {
+		SchemeImage scheme = SchemeImage.of(ImageIO.read(new ByteArrayInputStream(data)));
+		
+		BufferedImage target = new BufferedImage(scheme.image.getWidth(), scheme.image.getHeight() + 19, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = target.createGraphics();
+		g2d.drawImage(scheme.image, 0, 19, null);
+		
+		int[] segments = scheme.geometry.lineSegments(2, scheme.geometry.height / 2);
+		for (int i = 0; i < segments.length; i += 2)
+			g2d.fillRect(segments[i], scheme.geometry.height / 2 + 19, segments[i + 1] - segments[i], 1);
+		g2d.dispose();
+		
+		return target;
+	}
+}
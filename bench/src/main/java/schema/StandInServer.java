@@ -0,0 +1,190 @@
+package schema;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Answers like <tt>schedulegenerator.aspx</tt> on novasoftware, so fetching can be tested without the
+ * internet. Recorded schemes are replayed from a directory, where they are named like the disk cache
+ * names them: <tt>id_year_week_day_WIDTHxHEIGHT.png</tt>, with the year being ignored. Schemes that
+ * haven't been recorded are drawn by {@link SyntheticSchemes}. Every answer is delayed by <tt>latency</tt>
+ * ms and <tt>errorRate</tt> of them are 503 errors.
+ */
+public class StandInServer {
+	
+	static final String PATH = "/ImgGen/schedulegenerator.aspx";
+	
+	private final Path recordings;
+	private final long latency;
+	private final double errorRate;
+	
+	/** The recordings by id, week, day and size */
+	private final Map<String, Path> recorded = new HashMap<>();
+	private final Map<String, byte[]> drawn = new ConcurrentHashMap<>();
+	
+	private HttpServer server;
+	private ExecutorService executor;
+	
+	/**
+	 * @param recordings the directory of the recorded schemes, or null to draw them all
+	 * @param latency the number of milliseconds every answer is delayed
+	 * @param errorRate the part of the answers that are errors, from 0 to 1
+	 */
+	StandInServer(Path recordings, long latency, double errorRate) {
+		this.recordings = recordings;
+		this.latency = latency;
+		this.errorRate = errorRate;
+	}
+	
+	/** Starts the server on <tt>port</tt>, or any free port if it's 0, and gets the port */
+	int start(int port) throws IOException {
+		if (recordings != null && Files.isDirectory(recordings)) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(recordings, "*.png")) {
+				for (Path file : stream) {
+					String[] parts = file.getFileName().toString().replace(".png", "").split("_");
+					if (parts.length != 5) continue;
+					
+					String id = URLDecoder.decode(parts[0], StandardCharsets.UTF_8);
+					recorded.put(key(id, parts[2], parts[3], parts[4]), file);
+				}
+			}
+		}
+		
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "stand-in");
+			t.setDaemon(true);
+			return t;
+		});
+		
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext(PATH, this::handle);
+		server.setExecutor(executor);
+		server.start();
+		
+		return server.getAddress().getPort();
+	}
+	
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	
+	/** Gets the format string for the scheme URLs, taking the same arguments as the one in Schema */
+	String formattingString() {
+		return "http://localhost:" + server.getAddress().getPort() + PATH
+				+ "?format=png&schoolid=29120/sv-se&id=%s&period=&week=%d&day=%d&width=%d&height=%d";
+	}
+	
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (latency > 0) Thread.sleep(latency);
+			
+			if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			
+			Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+			byte[] scheme = scheme(
+					query.getOrDefault("id", ""),
+					query.getOrDefault("week", "0"),
+					query.getOrDefault("day", "0"),
+					query.getOrDefault("width", "0") + "x" + query.getOrDefault("height", "0"));
+			
+			if (scheme == null) {
+				exchange.sendResponseHeaders(400, -1);
+				return;
+			}
+			
+			exchange.getResponseHeaders().set("Content-Type", "image/png");
+			exchange.sendResponseHeaders(200, scheme.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(scheme);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	private byte[] scheme(String id, String week, String day, String size) throws IOException {
+		String key = key(id, week, day, size);
+		
+		Path file = recorded.get(key);
+		if (file != null) return Files.readAllBytes(file);
+		
+		String[] dimensions = size.split("x");
+		int width, height, days;
+		try {
+			width = Integer.parseInt(dimensions[0]);
+			height = Integer.parseInt(dimensions[1]);
+			days = Integer.parseInt(day) == 0 ? 5 : 1;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (width <= 0 || height <= 0 || width > 4000 || height > 4000) return null;
+		
+		return drawn.computeIfAbsent(key, k ->
+				SyntheticSchemes.png(SyntheticSchemes.render(width, height, days, k.hashCode())));
+	}
+	
+	private static String key(String id, String week, String day, String size) {
+		return id + "_" + week + "_" + day + "_" + size;
+	}
+	
+	private static Map<String, String> query(String rawQuery) {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery == null) return query;
+		
+		for (String parameter : rawQuery.split("&")) {
+			int i = parameter.indexOf('=');
+			if (i < 0) continue;
+			query.put(
+					URLDecoder.decode(parameter.substring(0, i), StandardCharsets.UTF_8),
+					URLDecoder.decode(parameter.substring(i + 1), StandardCharsets.UTF_8));
+		}
+		
+		return query;
+	}
+	
+	/** Runs the server: <tt>StandInServer [port] [recordings] [latency ms] [error rate]</tt> */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		Path recordings = args.length > 1 ? Paths.get(args[1]) : null;
+		long latency = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+		
+		StandInServer server = new StandInServer(recordings, latency, errorRate);
+		port = server.start(port);
+		System.out.println("Serving schemes on http://localhost:" + port + PATH);
+		
+		// the threads are daemons, so wait for ever
+		Object forever = new Object();
+		synchronized (forever) {
+			while (true) {
+				try {
+					forever.wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package schema;
+
+import javax.imageio.ImageIO;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Draws pictures that look like the schemes from novasoftware where it matters for the analysis:
+ * a black line under the date labels, black lines separating the days, a grey background and
+ * coloured lessons with black borders. Used when there are no recorded schemes.
+ */
+final class SyntheticSchemes {
+	
+	private static final Color[] LESSON_COLOURS = {
+			new Color(0xffff99), new Color(0x99ccff), new Color(0xccffcc), new Color(0xffcc99), new Color(0xff99cc)
+	};
+	
+	private SyntheticSchemes() {}
+	
+	/** Draws a week scheme with random lessons, the same ones for the same <tt>seed</tt> */
+	static BufferedImage render(int width, int height, long seed) {
+		return render(width, height, 5, seed);
+	}
+	
+	/** Draws a scheme of <tt>days</tt> days, which like the real single day schemes has no separators if it's one */
+	static BufferedImage render(int width, int height, int days, long seed) {
+		Random random = new Random(seed);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		
+		int timeStartY = days == 1 ? 23 : Math.max(10, height / 20);
+		
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, width, height);
+		g.setColor(new Color(SchemeGeometry.SCHEME_BG_RGB));
+		g.fillRect(0, timeStartY + 1, width, height - timeStartY - 1);
+		
+		g.setColor(Color.BLACK);
+		g.drawLine(0, timeStartY, width - 1, timeStartY);
+		
+		for (int day = 0; day < days; day++) {
+			int x0 = days == 1 ? 0 : day * (width - 1) / days;
+			int x1 = days == 1 ? width : (day + 1) * (width - 1) / days;
+			
+			// lessons from 8:00 to 17:00, in steps of a quarter
+			int quarter = 0;
+			while (quarter < 36) {
+				quarter += random.nextInt(4);
+				int length = 3 + random.nextInt(5);
+				if (quarter + length > 36) break;
+				
+				int y0 = timeStartY + 1 + (height - timeStartY - 1) * quarter / 36;
+				int y1 = timeStartY + 1 + (height - timeStartY - 1) * (quarter + length) / 36;
+				
+				g.setColor(LESSON_COLOURS[random.nextInt(LESSON_COLOURS.length)]);
+				g.fillRect(x0 + 2, y0, x1 - x0 - 4, y1 - y0);
+				g.setColor(Color.BLACK);
+				g.drawRect(x0 + 2, y0, x1 - x0 - 5, y1 - y0 - 1);
+				
+				quarter += length;
+			}
+			
+			if (days > 1) {
+				g.setColor(Color.BLACK);
+				g.drawLine(x0, 0, x0, height - 1);
+				g.drawLine(x1, 0, x1, height - 1);
+			}
+		}
+		
+		g.dispose();
+		return image;
+	}
+	
+	static byte[] png(BufferedImage image) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", out);
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * The times of a week when all of a number of ids are free, found by fetching all of their schemes at
+ * once and joining their occupied slots from {@link OccupancyIndex#occupiedSlots}.
+ */
+final class CommonFreeSlots {
+	
+	/** For each day, the slots where any of the ids is occupied */
+	private final BitSet[] occupied;
+	
+	private CommonFreeSlots(BitSet[] occupied) {
+		this.occupied = occupied;
+	}
+	
+	/**
+	 * Fetches the lessons of every id at the same time
+	 *
+	 * @param fetcher fetches the lessons of an id for the week
+	 * @return a future that fails if any of them can't be fetched. Cancelling it cancels the fetches.
+	 */
+	static CompletableFuture<CommonFreeSlots> find(List<String> ids, Function<String, CompletableFuture<SchemeLessons>> fetcher) {
+		List<CompletableFuture<SchemeLessons>> fetches = new ArrayList<>();
+		for (String id : ids) fetches.add(fetcher.apply(id));
+		
+		CompletableFuture<CommonFreeSlots> slots = CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+			BitSet[] occupied = new BitSet[OccupancyIndex.DAYS];
+			for (int day = 0; day < occupied.length; day++) occupied[day] = new BitSet(OccupancyIndex.SLOTS);
+			
+			for (CompletableFuture<SchemeLessons> fetch : fetches) {
+				BitSet[] days = OccupancyIndex.occupiedSlots(fetch.join());
+				for (int day = 0; day < occupied.length; day++) occupied[day].or(days[day]);
+			}
+			
+			return new CommonFreeSlots(occupied);
+		});
+		
+		// cancelling a future made from others doesn't cancel them
+		slots.whenComplete((result, e) -> {
+			if (slots.isCancelled()) for (CompletableFuture<SchemeLessons> fetch : fetches) fetch.cancel(true);
+		});
+		return slots;
+	}
+	
+	/**
+	 * Gets the times on <tt>day</tt> when everyone is free for at least <tt>minutes</tt> minutes
+	 *
+	 * @return pairs of start (inclusive) and end (exclusive) minutes from 8:00
+	 */
+	int[] free(int day, int minutes) {
+		int minSlots = Math.max(1, (minutes + OccupancyIndex.SLOT_MINUTES - 1) / OccupancyIndex.SLOT_MINUTES);
+		
+		int[] res = new int[8];
+		int count = 0;
+		int start = occupied[day].nextClearBit(0);
+		while (start < OccupancyIndex.SLOTS) {
+			int end = occupied[day].nextSetBit(start);
+			if (end < 0 || end > OccupancyIndex.SLOTS) end = OccupancyIndex.SLOTS;
+			
+			if (end - start >= minSlots) {
+				if (count == res.length) res = Arrays.copyOf(res, count * 2);
+				res[count++] = start * OccupancyIndex.SLOT_MINUTES;
+				res[count++] = end * OccupancyIndex.SLOT_MINUTES;
+			}
+			
+			start = occupied[day].nextClearBit(end);
+		}
+		
+		return Arrays.copyOf(res, count);
+	}
+}
@@ -0,0 +1,199 @@
+import javax.imageio.ImageIO;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.WeekFields;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes when every classroom is free each day of a week, without any windows, so that it can be run
+ * by a nightly job on a server. The rooms are fetched in parallel on a bounded pool and each room is
+ * written as soon as it has been analyzed, as CSV or as JSON lines.
+ *
+ * <pre>
+ * java Schema --report [--week N] [--rooms file] [--format csv|json] [--min-minutes M] [--threads T] [--server url]
+ * </pre>
+ */
+class FreeRoomReport {
+	
+	private static final String[] DAY_NAMES = {"Måndag", "Tisdag", "Onsdag", "Torsdag", "Fredag"};
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+	
+	private final List<String> rooms;
+	private final int week;
+	private final boolean json;
+	private final int minMinutes;
+	private final SchemeClient client;
+	private final PrintWriter out;
+	
+	private final AtomicBoolean failed = new AtomicBoolean();
+	
+	private FreeRoomReport(List<String> rooms, int week, boolean json, int minMinutes, SchemeClient client, PrintWriter out) {
+		this.rooms = rooms;
+		this.week = week;
+		this.json = json;
+		this.minMinutes = minMinutes;
+		this.client = client;
+		this.out = out;
+	}
+	
+	/** Runs the report with the arguments after <tt>--report</tt>, exiting with 1 if any room failed */
+	static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		
+		int week = Schema.currentWeek();
+		List<String> rooms = Schema.CLASSROOMS;
+		boolean json = false;
+		int minMinutes = 1;
+		int threads = 8;
+		
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--week": week = Integer.parseInt(args[++i]); break;
+				case "--rooms": rooms = readRooms(args[++i]); break;
+				case "--format":
+					String format = args[++i];
+					if (!format.equals("csv") && !format.equals("json")) {
+						System.err.println("Okänt format: " + format);
+						System.exit(2);
+					}
+					json = format.equals("json");
+					break;
+				case "--min-minutes": minMinutes = Integer.parseInt(args[++i]); break;
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				case "--server": Schema.setServer(args[++i]); break;
+				default:
+					System.err.println("Okänt argument: " + args[i]);
+					System.exit(2);
+			}
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		SchemeClient client = new SchemeClient(pool, threads, 10000, 3, new SchemeClient.StatusListener() {
+			@Override
+			public void failed(Throwable cause, long retryIn) {
+				System.err.println(cause + (retryIn < 0 ? "" : ", försöker igen om " + retryIn + " ms"));
+			}
+			
+			@Override
+			public void recovered() {}
+		});
+		
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+		FreeRoomReport report = new FreeRoomReport(rooms, week, json, minMinutes, client, out);
+		report.run();
+		out.flush();
+		
+		System.exit(report.failed.get() ? 1 : 0);
+	}
+	
+	/** Reads one room per line, skipping empty lines and lines starting with # */
+	private static List<String> readRooms(String file) throws IOException {
+		List<String> rooms = new ArrayList<>();
+		for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")) rooms.add(line);
+		}
+		return Collections.unmodifiableList(rooms);
+	}
+	
+	private void run() {
+		if (!json) out.println("room,date,day,start,end");
+		
+		CompletableFuture<?>[] analyses = new CompletableFuture<?>[rooms.size()];
+		for (int i = 0; i < analyses.length; i++) {
+			String room = rooms.get(i);
+			analyses[i] = CommonFreeSlots.find(Collections.singletonList(room), this::fetchLessons)
+					.thenAccept(slots -> write(room, slots))
+					.exceptionally(e -> {
+						failed.set(true);
+						System.err.println(room + ": " + (e instanceof CompletionException ? e.getCause() : e));
+						return null;
+					});
+		}
+		
+		CompletableFuture.allOf(analyses).join();
+	}
+	
+	private CompletableFuture<SchemeLessons> fetchLessons(String room) {
+		return client.fetch(Schema.schemeURL(room, week, 0, 500, 400)).thenApply(data -> {
+			BufferedImage scheme;
+			try {
+				scheme = ImageIO.read(new ByteArrayInputStream(data));
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+			if (scheme == null) throw new CompletionException(new IOException("Not an image"));
+			
+			SchemeImage image = SchemeImage.of(scheme);
+			if (image.geometry.invalid) throw new CompletionException(new NoSuchElementException(room));
+			return image.lessons();
+		});
+	}
+	
+	/** Writes all free times of <tt>room</tt> at once, so that the rooms written at the same time don't mix */
+	private void write(String room, CommonFreeSlots slots) {
+		// the year the rest of the program fetches the week in, January 4th always being in its first week
+		LocalDate monday = LocalDate.of(Schema.yearOfWeek(week), 1, 4)
+				.with(WeekFields.ISO.weekOfWeekBasedYear(), week)
+				.with(ChronoField.DAY_OF_WEEK, 1);
+		
+		StringBuilder b = new StringBuilder();
+		for (int day = 0; day < DAY_NAMES.length; day++) {
+			int[] free = slots.free(day, minMinutes);
+			LocalDate date = monday.plusDays(day);
+			
+			if (json) {
+				b.append("{\"room\":\"").append(escape(room))
+						.append("\",\"week\":").append(week)
+						.append(",\"date\":\"").append(date)
+						.append("\",\"day\":\"").append(DAY_NAMES[day])
+						.append("\",\"free\":[");
+				for (int i = 0; i < free.length; i += 2) {
+					if (i > 0) b.append(',');
+					b.append("[\"").append(time(free[i])).append("\",\"").append(time(free[i + 1])).append("\"]");
+				}
+				b.append("]}\n");
+			} else {
+				for (int i = 0; i < free.length; i += 2) {
+					b.append(room).append(',')
+							.append(date).append(',')
+							.append(DAY_NAMES[day]).append(',')
+							.append(time(free[i])).append(',')
+							.append(time(free[i + 1])).append('\n');
+				}
+			}
+		}
+		
+		synchronized (out) {
+			out.print(b);
+			out.flush();
+		}
+	}
+	
+	private static String time(int minute) {
+		return LocalTime.of(8, 0).plusMinutes(minute).format(TIME_FORMAT);
+	}
+	
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
@@ -0,0 +1,186 @@
+import javax.swing.*;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Asks for an id and checks if it exists while it's being written, a moment after the last key, without
+ * ever waiting for the internet on the event thread. The check fetches the scheme the id would show,
+ * so the scheme is there as soon as the id is chosen.
+ */
+class IdPicker {
+	
+	/** The number of milliseconds after the last key before the id is checked */
+	private static final int CHECK_DELAY = 300;
+	
+	private static final Color VALID_COLOR = new Color(0x2e7d32);
+	private static final Color INVALID_COLOR = new Color(0xc62828);
+	
+	private final Component parent;
+	private final Function<String, CompletableFuture<SchemeImage>> fetchScheme;
+	
+	private final JTextField field = new JTextField(15);
+	private final JLabel state = new JLabel(" ");
+	private final JButton ok = new JButton("OK");
+	private final JButton cancel = new JButton("Avbryt");
+	private final Timer checkTimer = new Timer(CHECK_DELAY, e -> check());
+	
+	/** The id being checked or last checked, and its scheme */
+	private String checkedId;
+	private CompletableFuture<SchemeImage> checked;
+	/** If the id should be chosen as soon as it has been found to exist */
+	private boolean accepting;
+	
+	private JDialog dialog;
+	private String chosenId;
+	private SchemeImage chosenScheme;
+	
+	/**
+	 * @param fetchScheme fetches the scheme of an id, which is invalid if the id doesn't exist. Cancelling
+	 *                    the future should abort the fetch, since it's done for every pause in the writing.
+	 */
+	IdPicker(Component parent, Function<String, CompletableFuture<SchemeImage>> fetchScheme) {
+		this.parent = parent;
+		this.fetchScheme = fetchScheme;
+		
+		checkTimer.setRepeats(false);
+	}
+	
+	/**
+	 * Shows the dialog until an existing id is chosen or it's cancelled
+	 *
+	 * @return the chosen id, or null if cancelled
+	 */
+	String pick() {
+		JOptionPane pane = new JOptionPane(
+				new Object[]{"Skriv in en id, lärare eller klassrum", field, state},
+				JOptionPane.PLAIN_MESSAGE,
+				JOptionPane.DEFAULT_OPTION,
+				null,
+				new Object[]{ok, cancel},
+				ok);
+		
+		field.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				changed();
+			}
+			
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				changed();
+			}
+			
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				changed();
+			}
+		});
+		field.addActionListener(e -> accept());
+		ok.addActionListener(e -> accept());
+		cancel.addActionListener(e -> dialog.dispose());
+		
+		dialog = pane.createDialog(parent, "Välj id");
+		dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+		dialog.addWindowFocusListener(new WindowAdapter() {
+			@Override
+			public void windowGainedFocus(WindowEvent e) {
+				field.requestFocusInWindow();
+			}
+		});
+		dialog.setVisible(true); // modal, so events are still handled while it's shown
+		
+		checkTimer.stop();
+		if (chosenId == null && checked != null) checked.cancel(true);
+		return chosenId;
+	}
+	
+	/** Gets the scheme that was fetched when checking the chosen id */
+	SchemeImage getChosenScheme() {
+		return chosenScheme;
+	}
+	
+	private void changed() {
+		accepting = false;
+		if (checked != null) checked.cancel(true);
+		checked = null;
+		checkedId = null;
+		
+		state.setText(" ");
+		checkTimer.restart();
+	}
+	
+	/** Starts checking the written id */
+	private void check() {
+		String id = field.getText().trim();
+		if (id.isEmpty() || id.equals(checkedId)) return;
+		
+		checkedId = id;
+		checked = fetchScheme.apply(id);
+		setState("Kollar...", Color.GRAY);
+		
+		CompletableFuture<SchemeImage> check = checked;
+		check.whenComplete((scheme, e) -> SwingUtilities.invokeLater(() -> checked(id, check)));
+	}
+	
+	private void checked(String id, CompletableFuture<SchemeImage> check) {
+		if (check != checked) return; // the id has been changed since
+		
+		SchemeImage scheme;
+		try {
+			scheme = check.join();
+		} catch (CancellationException e) {
+			return;
+		} catch (CompletionException e) {
+			e.printStackTrace();
+			accepting = false;
+			checkedId = null; // checked again on Enter
+			setState("Kunde inte ansluta", INVALID_COLOR);
+			return;
+		}
+		
+		if (scheme.geometry.invalid) {
+			accepting = false;
+			setState("Finns inte", INVALID_COLOR);
+			return;
+		}
+		
+		setState("Finns", VALID_COLOR);
+		if (accepting) choose(id, scheme);
+	}
+	
+	/** Chooses the written id, when it has been found to exist */
+	private void accept() {
+		String id = field.getText().trim();
+		if (id.isEmpty()) return;
+		
+		checkTimer.stop();
+		accepting = true;
+		
+		if (!id.equals(checkedId)) {
+			check();
+		} else if (checked.isDone()) {
+			checked(id, checked);
+		}
+	}
+	
+	private void choose(String id, SchemeImage scheme) {
+		chosenId = id;
+		chosenScheme = scheme;
+		dialog.dispose();
+	}
+	
+	private void setState(String text, Color color) {
+		state.setText(text);
+		state.setForeground(color);
+	}
+}
@@ -0,0 +1,227 @@
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Which rooms are occupied when during the current week, as one bit set per room and day with a bit
+ * for every five minutes. It's built in the background and then kept up to date by fetching one room
+ * at a time, so that finding free rooms doesn't need the internet. Rooms that couldn't be fetched are
+ * left out until they have been, and are fetched before the others. The refreshing is paused while
+ * nobody looks at the window, and outside of the school days, when the schemes aren't looked at.
+ */
+class OccupancyIndex {
+	
+	static final int SLOT_MINUTES = 5;
+	static final int SLOTS = SchemeLessons.DAY_MINUTES / SLOT_MINUTES;
+	static final int DAYS = 5;
+	
+	/** Fetches the lessons of a room for a week */
+	interface Fetcher {
+		
+		/**
+		 * @param maxAge the number of milliseconds old a stored copy may be instead of fetching it again
+		 * @return the lessons, failing with a <tt>NoSuchElementException</tt> if the room doesn't exist
+		 */
+		CompletableFuture<SchemeLessons> fetch(String room, int week, long maxAge);
+	}
+	
+	private final List<String> rooms;
+	private final Fetcher fetcher;
+	private final IntSupplier currentWeek;
+	
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "occupancy");
+		t.setDaemon(true);
+		return t;
+	});
+	
+	/** The occupied slots of each room and day, replaced but never changed */
+	private final Map<String, BitSet[]> occupied = new ConcurrentHashMap<>();
+	/** The rooms that turned out not to exist, which aren't fetched before the others */
+	private final Set<String> absent = ConcurrentHashMap.newKeySet();
+	private volatile int week = -1;
+	/** If every room has been tried once for <tt>week</tt> */
+	private volatile boolean built;
+	private int nextRoom;
+	
+	/** Guarded by <tt>this</tt> */
+	private long refreshSeconds;
+	private ScheduledFuture<?> refreshing;
+	/** Counts the pauses, so that a refresh that was running when it was paused doesn't schedule the next */
+	private int generation;
+	
+	/**
+	 * @param rooms the rooms to index
+	 * @param fetcher fetches the lessons of a room
+	 * @param currentWeek gets the week that should be indexed
+	 */
+	OccupancyIndex(List<String> rooms, Fetcher fetcher, IntSupplier currentWeek) {
+		this.rooms = rooms;
+		this.fetcher = fetcher;
+		this.currentWeek = currentWeek;
+	}
+	
+	/** Builds the index and then refreshes one room every <tt>refreshSeconds</tt> seconds during the school days */
+	synchronized void start(long refreshSeconds) {
+		this.refreshSeconds = refreshSeconds;
+		scheduler.execute(this::rebuild);
+		if (refreshSeconds > 0) scheduleRefresh(nextRefresh(LocalDateTime.now(), refreshSeconds * 1000));
+	}
+	
+	/** Stops refreshing while <tt>paused</tt>, catching up right away when it's no longer paused */
+	synchronized void setPaused(boolean paused) {
+		if (paused && refreshing != null) {
+			refreshing.cancel(false);
+			refreshing = null;
+			generation++;
+		} else if (!paused && refreshing == null && refreshSeconds > 0) {
+			scheduleRefresh(nextRefresh(LocalDateTime.now(), 0));
+		}
+	}
+	
+	private synchronized void scheduleRefresh(long delay) {
+		int scheduled = generation;
+		refreshing = scheduler.schedule(() -> {
+			try {
+				refreshNext();
+			} finally {
+				synchronized (this) {
+					if (generation == scheduled) scheduleRefresh(nextRefresh(LocalDateTime.now(), refreshSeconds * 1000));
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Gets the number of milliseconds from <tt>now</tt> until the next refresh, which is <tt>interval</tt>
+	 * during the school day and otherwise at 8:00 on the next school day
+	 */
+	static long nextRefresh(LocalDateTime now, long interval) {
+		LocalDateTime start = now.toLocalDate().atTime(8, 0);
+		LocalDateTime end = start.plusSeconds(SchemeGeometry.SCHEME_LENGTH);
+		
+		if (isSchoolDay(now) && !now.isBefore(start) && now.isBefore(end))
+			return interval;
+		
+		if (!now.isBefore(start)) start = start.plusDays(1);
+		while (!isSchoolDay(start)) start = start.plusDays(1);
+		return ChronoUnit.MILLIS.between(now, start);
+	}
+	
+	private static boolean isSchoolDay(LocalDateTime time) {
+		return time.getDayOfWeek() != DayOfWeek.SATURDAY && time.getDayOfWeek() != DayOfWeek.SUNDAY;
+	}
+	
+	/** Fetches all rooms at once for a new week, using the stored copies that are still there */
+	private void rebuild() {
+		int newWeek = currentWeek.getAsInt();
+		built = false;
+		occupied.clear();
+		absent.clear();
+		week = newWeek;
+		
+		CompletableFuture<?>[] fetches = new CompletableFuture<?>[rooms.size()];
+		for (int i = 0; i < fetches.length; i++)
+			fetches[i] = update(rooms.get(i), newWeek, Long.MAX_VALUE);
+		
+		CompletableFuture.allOf(fetches).join();
+		built = true;
+	}
+	
+	/** Fetches a room that couldn't be fetched, or else the next room again, or all of them if the week has changed */
+	private void refreshNext() {
+		if (currentWeek.getAsInt() != week) {
+			rebuild();
+			return;
+		}
+		
+		// a stored copy from within the last round is as new as this round would make it
+		long round = rooms.size() * refreshSeconds() * 1000;
+		
+		for (String room : rooms) {
+			if (!occupied.containsKey(room) && !absent.contains(room)) {
+				update(room, week, round).join();
+				return;
+			}
+		}
+		
+		String room = rooms.get(nextRoom);
+		nextRoom = (nextRoom + 1) % rooms.size();
+		update(room, week, round).join();
+	}
+	
+	private synchronized long refreshSeconds() {
+		return refreshSeconds;
+	}
+	
+	/** Fetches the room and indexes it, the future never fails */
+	private CompletableFuture<Void> update(String room, int week, long maxAge) {
+		return fetcher.fetch(room, week, maxAge).thenAccept(lessons -> {
+			if (week != this.week) return;
+			occupied.put(room, occupiedSlots(lessons));
+			absent.remove(room);
+		}).exceptionally(e -> {
+			if (e.getCause() instanceof NoSuchElementException) {
+				occupied.remove(room);
+				absent.add(room);
+			} else { // it's fetched again before the other rooms
+				e.printStackTrace();
+			}
+			return null;
+		});
+	}
+	
+	/** Gets the slots of each day that any lesson in <tt>lessons</tt> is in, even partly */
+	static BitSet[] occupiedSlots(SchemeLessons lessons) {
+		BitSet[] days = new BitSet[DAYS];
+		for (int day = 0; day < DAYS; day++) {
+			days[day] = new BitSet(SLOTS);
+			if (day >= lessons.dayCount()) continue;
+			
+			int[] intervals = lessons.intervals(day);
+			for (int i = 0; i < intervals.length; i += 2) {
+				int end = Math.min(SLOTS, (intervals[i + 1] + SLOT_MINUTES - 1) / SLOT_MINUTES);
+				days[day].set(intervals[i] / SLOT_MINUTES, end);
+			}
+		}
+		return days;
+	}
+	
+	/**
+	 * Checks if the index can answer for <tt>week</tt>, which is when every room has been tried and some
+	 * could be fetched. The rooms that couldn't be fetched are left out of the answers.
+	 */
+	boolean isReady(int week) {
+		return this.week == week && built && !occupied.isEmpty();
+	}
+	
+	/** Gets the rooms that are free for at least <tt>minutes</tt> minutes from <tt>minute</tt> on <tt>day</tt> */
+	List<String> freeFor(int day, int minute, int minutes) {
+		int from = Math.max(0, minute) / SLOT_MINUTES;
+		int to = Math.min(SLOTS, (minute + Math.max(1, minutes) + SLOT_MINUTES - 1) / SLOT_MINUTES);
+		
+		List<String> free = new ArrayList<>();
+		for (String room : rooms) {
+			BitSet[] days = occupied.get(room);
+			if (days == null || day >= DAYS) continue;
+			
+			int next = days[day].nextSetBit(from);
+			if (next < 0 || next >= to) free.add(room);
+		}
+		
+		return free;
+	}
+}
@@ -0,0 +1,165 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.BiFunction;
+
+/**
+ * A scheme kept as runs of indices into a palette of its colours, which takes a small part of the
+ * memory of the image since the schemes have few colours and long runs of the same colour. It's
+ * unpacked into an image again when it's about to be shown.
+ */
+final class PackedScheme {
+	
+	private static final int MAX_COLOURS = 256;
+	
+	final int width;
+	final int height;
+	final boolean resampled;
+	
+	private final String geometry;
+	private final int[] changes;
+	private final int[] palette;
+	/** The runs as the palette index followed by the length minus one in groups of 7 bits, lowest first */
+	private final ByteBuffer runs;
+	
+	private PackedScheme(SchemeImage scheme, int[] palette, ByteBuffer runs) {
+		this.width = scheme.image.getWidth();
+		this.height = scheme.image.getHeight();
+		this.resampled = scheme.resampled;
+		this.geometry = scheme.geometry.describe();
+		this.changes = scheme.changes;
+		this.palette = palette;
+		this.runs = runs;
+	}
+	
+	/**
+	 * Packs <tt>scheme</tt>, keeping the runs outside of the heap if <tt>offHeap</tt>
+	 *
+	 * @return the packed scheme, or null if it has too many colours or is invalid
+	 */
+	static PackedScheme pack(SchemeImage scheme, boolean offHeap) {
+		if (scheme.geometry.invalid) return null;
+		
+		SchemePixels pixels = new SchemePixels(scheme.image);
+		int[] row = new int[pixels.width];
+		int[] palette = new int[16];
+		int colours = 0;
+		
+		byte[] out = new byte[4096];
+		int n = 0;
+		
+		int runRGB = 0, runIndex = -1;
+		long runLength = 0;
+		
+		for (int y = 0; y < pixels.height; y++) {
+			pixels.row(y, 0, pixels.width, row);
+			
+			for (int x = 0; x < row.length; x++) {
+				if (runIndex >= 0 && row[x] == runRGB) {
+					runLength++;
+					continue;
+				}
+				
+				if (runIndex >= 0) {
+					if (n + 11 > out.length) out = Arrays.copyOf(out, out.length * 2);
+					n = writeRun(out, n, runIndex, runLength);
+				}
+				
+				// looked up once per run, and there are few colours
+				int index = 0;
+				while (index < colours && palette[index] != row[x]) index++;
+				if (index == colours) {
+					if (colours == MAX_COLOURS) return null;
+					if (colours == palette.length) palette = Arrays.copyOf(palette, colours * 2);
+					palette[colours++] = row[x];
+				}
+				
+				runRGB = row[x];
+				runIndex = index;
+				runLength = 1;
+			}
+		}
+		
+		if (runIndex >= 0) {
+			if (n + 11 > out.length) out = Arrays.copyOf(out, out.length * 2);
+			n = writeRun(out, n, runIndex, runLength);
+		}
+		
+		ByteBuffer runs;
+		if (offHeap) {
+			runs = ByteBuffer.allocateDirect(n);
+			runs.put(out, 0, n).flip();
+		} else {
+			runs = ByteBuffer.wrap(Arrays.copyOf(out, n));
+		}
+		
+		return new PackedScheme(scheme, Arrays.copyOf(palette, colours), runs);
+	}
+	
+	private static int writeRun(byte[] out, int n, int index, long length) {
+		out[n++] = (byte) index;
+		
+		long rest = length - 1;
+		while (rest >= 0x80) {
+			out[n++] = (byte) (rest & 0x7f | 0x80);
+			rest >>>= 7;
+		}
+		out[n++] = (byte) rest;
+		
+		return n;
+	}
+	
+	/** Unpacks the scheme into an image made by <tt>createImage</tt> from the width and height */
+	SchemeImage unpack(BiFunction<Integer, Integer, BufferedImage> createImage) {
+		BufferedImage image = createImage.apply(width, height);
+		WritableRaster raster = image.getRaster();
+		int[] row = new int[width];
+		
+		// the colours can be written straight into these, the alpha being ignored or opaque
+		int type = image.getType();
+		boolean packedInts = type == BufferedImage.TYPE_INT_RGB
+				|| type == BufferedImage.TYPE_INT_ARGB
+				|| type == BufferedImage.TYPE_INT_ARGB_PRE;
+		
+		int i = 0;
+		int rgb = 0;
+		long left = 0;
+		
+		for (int y = 0; y < height; y++) {
+			int x = 0;
+			while (x < width) {
+				if (left == 0) {
+					rgb = palette[runs.get(i++) & 0xff];
+					
+					long length = 0;
+					int shift = 0;
+					byte b;
+					do {
+						b = runs.get(i++);
+						length |= (long) (b & 0x7f) << shift;
+						shift += 7;
+					} while (b < 0);
+					left = length + 1;
+				}
+				
+				int end = (int) Math.min(width, x + left);
+				Arrays.fill(row, x, end, rgb);
+				left -= end - x;
+				x = end;
+			}
+			
+			if (packedInts) raster.setDataElements(0, y, width, 1, row);
+			else image.setRGB(0, y, width, 1, row, 0, width);
+		}
+		
+		SchemePixels pixels = new SchemePixels(image);
+		SchemeGeometry restored = SchemeGeometry.restore(pixels, geometry);
+		return new SchemeImage(image, restored != null ? restored : SchemeGeometry.analyze(pixels), resampled, changes);
+	}
+	
+	/** Gets the number of bytes used by the runs and the palette */
+	long size() {
+		return runs.capacity() + palette.length * 4L;
+	}
+}
@@ -0,0 +1,41 @@
+/**
+ * Decides how many weeks ahead to load when the user goes to another week. Every press that comes
+ * quickly after one in the same direction widens the window, and a slow press or a change of
+ * direction shrinks it back.
+ */
+class PrefetchPolicy {
+	
+	/** Presses closer than this many milliseconds apart count as paging quickly */
+	private static final long FAST_INTERVAL = 700;
+	
+	private final int minWeeks;
+	private final int maxWeeks;
+	
+	private int lastDirection;
+	private long lastTime;
+	private int streak;
+	
+	/**
+	 * @param minWeeks the number of weeks ahead to load when paging slowly
+	 * @param maxWeeks the most weeks ahead to load, however quickly the user pages
+	 */
+	PrefetchPolicy(int minWeeks, int maxWeeks) {
+		this.minWeeks = minWeeks;
+		this.maxWeeks = Math.max(minWeeks, maxWeeks);
+	}
+	
+	/**
+	 * Records that the user went a week in <tt>direction</tt> (1 or -1) at <tt>time</tt> milliseconds
+	 *
+	 * @return the number of weeks ahead in that direction to load
+	 */
+	synchronized int record(int direction, long time) {
+		if (direction == lastDirection && time - lastTime < FAST_INTERVAL) streak++;
+		else streak = 0;
+		
+		lastDirection = direction;
+		lastTime = time;
+		
+		return Math.min(maxWeeks, minWeeks + 2 * streak);
+	}
+}
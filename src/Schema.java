@@ -1,6 +1,8 @@
 import com.apple.eawt.Application;
 
 import javax.imageio.ImageIO;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.swing.*;
 import javax.swing.Timer;
 import javax.swing.event.HyperlinkEvent;
@@ -10,77 +12,157 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
-import java.net.URL;
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalField;
 import java.time.temporal.WeekFields;
 
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 public class Schema extends JLabel {
 	
-	/** The number of seconds from 8:00 to 17:00 */
-	private static final int SCHEME_LENGTH = 32400;
+	/** When the program started, for measuring the time until the first scheme is painted */
+	private static final long START_TIME = System.nanoTime();
+	
 	private static final TemporalField WEEK_NUMBER_FIELD = WeekFields.ISO.weekOfWeekBasedYear();
 	
 	private static final String IMAGE_ERROR_MESSAGE =
 			"Något gick fel, kolla på vanliga schemahemsidan och kolla om den är nere eller nåt";
 	private static final String IO_ERROR_MESSAGE = "Kunde inte ansluta till internet, kolla om du är ansluten";
+	private static final String IMAGE_ERROR_STATUS = "Kunde inte läsa schemat";
 	private static final String INVALID_ID_MESSAGE = "Den finns inte";
 	
 	private static final String PROPERTIES_PATH = "prop.properties";
+	/** How long to wait for more changes to the settings before writing them */
+	private static final long SETTINGS_WRITE_DELAY = 500;
 	private static final String ICON_PATH = "logga.png";
+	private static final String CACHE_PATH = "cache";
 	
 	private static final String KEY_ID = "id";
-	private static final String KEY_SHOW_ID_ERROR = "showIdError";
+	private static final String KEY_RECENT_IDS = "recentIds";
 	private static final String KEY_PREVENT_OUT_OF_BOUNDS = "prevOutOfBounds";
+	private static final String KEY_FETCH_THREADS = "fetchThreads";
+	private static final String KEY_FETCH_TIMEOUT = "fetchTimeout";
+	private static final String KEY_FETCH_RETRIES = "fetchRetries";
+	private static final String KEY_DISK_CACHE_SIZE = "diskCacheSize";
+	private static final String KEY_DISK_CACHE_MAX_AGE = "diskCacheMaxAge";
+	private static final String KEY_MEMORY_BUDGET = "memoryBudget";
+	private static final String KEY_BUFFER_OFF_HEAP = "bufferOffHeap";
+	private static final String KEY_OCCUPANCY_REFRESH = "occupancyRefresh";
+	private static final String KEY_LOAD_THREADS = "loadThreads";
+	private static final String KEY_PREFETCH_WEEKS = "prefetchWeeks";
+	private static final String KEY_LAST_WIDTH = "lastWidth";
+	private static final String KEY_LAST_HEIGHT = "lastHeight";
+	private static final String KEY_LAST_GEOMETRY = "lastGeometry";
+	private static final String KEY_SERVER = "server";
+	private static final String KEY_REFRESH_INTERVAL = "refreshInterval";
+	
+	private static final int MAX_RECENT_IDS = 10;
 	
 	private static final float FONT_SIZE = 16.0f;
 	private static final int TEXT_SPACE = 19;
 	private static final Color LINE_COLOR = new Color(0xffff0000);
-	private static final int SCHEME_BG_RGB = 0xffc0c0c0;
+	private static final Color CHANGE_COLOR = new Color(0xffff8800);
 	
-	private LocalDate currentDate;
+	/** How many pixels the size has to change by before the schemes are fetched again instead of scaled */
+	private static final int REFETCH_THRESHOLD = 10;
+	/** How much smaller than a fetched scheme a scheme can be and still be scaled from it instead of fetched */
+	private static final double MIN_DOWNSCALE = 0.75;
+	/** How often the whole buffered weeks are checked for changes, the other times only today is */
+	private static final int WHOLE_WEEK_REFRESHES = 4;
+	/** The number of milliseconds the size has to stay the same before fetching sharp schemes */
+	private static final int RESIZE_SETTLE_DELAY = 400;
 	
-	/** The currently shown id that isn't stored */
-	private String lastId;
+	/** The shown id, week and scheme, replaced as a whole so painting never sees half a change */
+	private final AtomicReference<ViewState> view = new AtomicReference<>();
 	
-	/** The stored id that will be returned to when pressing s */
-	private String id;
+	/** The id that was shown before the shown id, which is swapped to when pressing s */
+	private String lastId;
 	
-	private final ReentrantLock schemeBufferLock = new ReentrantLock();
-	private HashMap<Integer, BufferedImage> schemeBuffer;
-	private BlockingQueue<int[]> loadingQueue;
+	private SchemeBuffer schemeBuffer;
+	private SchemeScheduler scheduler;
+	private PrefetchPolicy prefetchPolicy;
 	private JFrame frame;
-	/** A list containing the horizontal positions of the black lines separating the days */
-	private List<Integer> daySeparators;
 	
-	/** The scheme-relative time start position */
-	private int timeStartY;
+	/** The size of the fetched schemes that the scaled ones shown while resizing are made from */
+	private volatile int fetchedWidth, fetchedHeight;
 	
 	private boolean showStrings;
-	private int textSpace;
+	private volatile int textSpace;
+	
+	/** Fires when the now line moves next, see {@link #scheduleNowLine()} */
+	private final Timer lineUpdateTimer = new Timer(0, e -> {
+		repaintNowLine();
+		scheduleNowLine();
+	});
+	
+	/** Where the now line was last painted relative to the frame, or -1 if it wasn't, and on which day */
+	private int paintedLineY = -1;
+	private LocalDate paintedDate;
+	private SettingsStore prop;
+	
+	/** The pool that the fetches and what is done with them run on */
+	private ExecutorService fetchPool;
+	private SchemeClient client;
+	private SchemeFetches fetches;
+	
+	/** A short text about what's wrong with fetching, painted in the corner, or null if nothing is */
+	private volatile String status;
 	
-	private final Timer lineUpdateTimer = new Timer(15000, e -> repaint());
-	private Properties prop;
+	private SchemeDiskCache diskCache;
 	
-	public static void main(String[] args) {
+	/** Which classrooms are free when this week, so that they don't have to be fetched for every question */
+	private OccupancyIndex occupancyIndex;
+	
+	private boolean firstPaintReported;
+	/** The number of times the buffered schemes have been checked for changes */
+	private int refreshes;
+	/** The sizes and geometries of weeks whose days didn't fit when fetched alone, which are refreshed whole */
+	private final Set<String> unfitDayGeometries = ConcurrentHashMap.newKeySet();
+	
+	private final SchemeMetrics metrics = new SchemeMetrics();
+	/** If the metrics are painted over the scheme, updated every second while they are */
+	private boolean showMetrics;
+	private final Timer metricsTimer = new Timer(1000, e -> repaint());
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("--report")) { // no windows, so it can run on a server
+			FreeRoomReport.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("--serve")) {
+			SchemeProxy.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		
 		try {
 			Image icon = Toolkit.getDefaultToolkit().getImage(ICON_PATH);
 			Application.getApplication().setDockIconImage(icon);
@@ -92,19 +174,39 @@ public class Schema extends JLabel {
 	}
 	
 	private Schema() {
-		currentDate = LocalDate.now().with(WEEK_NUMBER_FIELD, currentWeek());
-		schemeBuffer = new HashMap<>();
-		loadingQueue = new ArrayBlockingQueue<>(10);
-		daySeparators = new ArrayList<>(6);
 		textSpace = TEXT_SPACE;
 		showStrings = true;
 		
-		prop = new Properties();
-		loadProperties();
-		id = prop.getProperty(KEY_ID);
-		if (id == null) selectClass();
+		prop = new SettingsStore(Paths.get(PROPERTIES_PATH), SETTINGS_WRITE_DELAY);
+		lastId = recentIds().size() > 1 ? recentIds().get(1) : null;
+		setServer(prop.getProperty(KEY_SERVER, DEFAULT_SERVER));
 		
-		new RequestThread().start();
+		client = new SchemeClient(
+				getFetchPool(),
+				fetchThreads(),
+				Integer.parseInt(prop.getProperty(KEY_FETCH_TIMEOUT, "5000")),
+				Integer.parseInt(prop.getProperty(KEY_FETCH_RETRIES, "3")),
+				new FetchStatus());
+		fetches = new SchemeFetches(this::download);
+		diskCache = new SchemeDiskCache(
+				Paths.get(CACHE_PATH),
+				Long.parseLong(prop.getProperty(KEY_DISK_CACHE_SIZE, "50")) * 1024 * 1024,
+				Long.parseLong(prop.getProperty(KEY_DISK_CACHE_MAX_AGE, "24")) * 60 * 60 * 1000);
+		schemeBuffer = new SchemeBuffer(
+				Long.parseLong(prop.getProperty(KEY_MEMORY_BUDGET, "64")) * 1024 * 1024,
+				Boolean.parseBoolean(prop.getProperty(KEY_BUFFER_OFF_HEAP, "false")),
+				Schema::createScreenImage);
+		
+		view.set(new ViewState(
+				prop.getProperty(KEY_ID),
+				LocalDate.now().with(WEEK_NUMBER_FIELD, currentWeek()),
+				null, null));
+		restoreLastScheme();
+		
+		scheduler = new SchemeScheduler(Integer.parseInt(prop.getProperty(KEY_LOAD_THREADS, "3")), metrics);
+		metrics.watch(schemeBuffer, scheduler, fetches);
+		registerMetrics();
+		prefetchPolicy = new PrefetchPolicy(2, Integer.parseInt(prop.getProperty(KEY_PREFETCH_WEEKS, "8")));
 		
 		SwingUtilities.invokeLater(this::createAndShowGUI);
 	}
@@ -120,7 +222,7 @@ public class Schema extends JLabel {
 		Application application = Application.getApplication();
 		
 		frame.addComponentListener(new ComponentAdapter() {
-			Timer timer = new Timer(50, e -> reloadBuffer());
+			Timer timer = new Timer(RESIZE_SETTLE_DELAY, e -> refineSize());
 			
 			{
 				timer.setRepeats(false);
@@ -128,10 +230,35 @@ public class Schema extends JLabel {
 			
 			@Override
 			public void componentResized(ComponentEvent e) {
+				scaleBuffer();
+				
+				// nothing to scale before the first fetch, so fetch it right away
+				timer.setInitialDelay(fetchedWidth == 0 ? 50 : RESIZE_SETTLE_DELAY);
 				if (timer.isRunning()) {
 					timer.restart();
 				} else timer.start();
 			}
+			
+			@Override
+			public void componentShown(ComponentEvent e) {
+				scheduleNowLine();
+			}
+			
+			@Override
+			public void componentHidden(ComponentEvent e) {
+				scheduleNowLine();
+			}
+		});
+		frame.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowIconified(WindowEvent e) {
+				scheduleNowLine();
+			}
+			
+			@Override
+			public void windowDeiconified(WindowEvent e) {
+				scheduleNowLine();
+			}
 		});
 		
 		InputMap im = this.getInputMap();
@@ -145,7 +272,9 @@ public class Schema extends JLabel {
 		im.put(KeyStroke.getKeyStroke("meta R"), "reloadBuffer");
 		im.put(KeyStroke.getKeyStroke("S"), "swap");
 		im.put(KeyStroke.getKeyStroke("L"), "emptyClassrooms");
+		im.put(KeyStroke.getKeyStroke("G"), "commonFreeSlots");
 		im.put(KeyStroke.getKeyStroke("H"), "hideStrings");
+		im.put(KeyStroke.getKeyStroke("D"), "toggleMetrics");
 		
 		ActionMap am = this.getActionMap();
 		am.put("nextWeek", new SetWeekAction(true));
@@ -153,9 +282,8 @@ public class Schema extends JLabel {
 		am.put("currentWeek", new AbstractAction() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				currentDate = LocalDate.now().with(WEEK_NUMBER_FIELD, currentWeek());
-				loadingQueue.offer(new int[]{0,0,0});
-				repaint();
+				showDate(LocalDate.now().with(WEEK_NUMBER_FIELD, currentWeek()));
+				refreshBuffer();
 			}
 		});
 		am.put("exit", new AbstractAction() {
@@ -179,6 +307,7 @@ public class Schema extends JLabel {
 		am.put("reloadBuffer", new AbstractAction() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				diskCache.invalidate(shownId());
 				reloadBuffer();
 			}
 		});
@@ -187,7 +316,7 @@ public class Schema extends JLabel {
 			public void actionPerformed(ActionEvent e) {
 				if (lastId != null) {
 					showId(lastId);
-					storeId(id);
+					storeId(shownId());
 				}
 			}
 		});
@@ -197,21 +326,97 @@ public class Schema extends JLabel {
 				findEmptyClassrooms();
 			}
 		});
+		am.put("commonFreeSlots", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				findCommonFreeSlots();
+			}
+		});
 		am.put("hideStrings", new AbstractAction() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				toggleHide();
 			}
 		});
+		am.put("toggleMetrics", new AbstractAction() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				showMetrics ^= true;
+				if (showMetrics) metricsTimer.start();
+				else metricsTimer.stop();
+				repaint();
+			}
+		});
 		
 		this.setFont(getFont().deriveFont(FONT_SIZE));
 		
 		Toolkit.getDefaultToolkit().setDynamicLayout(false);
 		
 		frame.add(this);
+		if (fetchedWidth != 0) { // the size of the restored scheme, so it can be shown without scaling
+			this.setPreferredSize(new Dimension(fetchedWidth - 2, fetchedHeight + textSpace - 1));
+			frame.pack();
+			updateView(UnaryOperator.identity());
+		}
 		frame.setVisible(true);
 		
-		lineUpdateTimer.start();
+		if (shownId() == null) selectClass();
+		else if (fetchedWidth != 0) refreshBuffer(); // the restored scheme might be old
+		
+		startOccupancyIndex();
+		
+		lineUpdateTimer.setRepeats(false);
+		scheduleNowLine();
+		
+		startRefreshing();
+	}
+	
+	/** Makes the metrics readable through JMX, as <tt>schema:type=Metrics</tt> */
+	private void registerMetrics() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("schema:type=Metrics"));
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void startOccupancyIndex() {
+		occupancyIndex = new OccupancyIndex(
+				CLASSROOMS,
+				this::storedLessons,
+				Schema::currentWeek);
+		occupancyIndex.start(Long.parseLong(prop.getProperty(KEY_OCCUPANCY_REFRESH, "30")));
+	}
+	
+	/** Checks the buffered schemes for changes every <tt>refreshInterval</tt> minutes, unless it's 0 */
+	private void startRefreshing() {
+		int minutes = Integer.parseInt(prop.getProperty(KEY_REFRESH_INTERVAL, "15"));
+		if (minutes <= 0) return;
+		
+		new Timer(minutes * 60 * 1000, e -> checkForChanges()).start();
+	}
+	
+	/** Checks today's part of this week for changes, and every few times all buffered weeks */
+	private void checkForChanges() {
+		boolean wholeWeeks = refreshes++ % WHOLE_WEEK_REFRESHES == 0;
+		
+		// after a small resize the fetched weeks are at the old size, so each week's closest fetched size is checked
+		Map<Integer, SchemeKey> weeks = new HashMap<>();
+		for (SchemeKey key : schemeBuffer.fetchedKeys()) {
+			SchemeKey shown = schemeKey(key.week);
+			if (!key.id.equals(shown.id) || key.year != shown.year || key.day != shown.day) continue;
+			
+			weeks.merge(key.week, key, (a, b) -> sizeDistance(a, shown) <= sizeDistance(b, shown) ? a : b);
+		}
+		
+		for (SchemeKey key : weeks.values()) {
+			if (wholeWeeks) scheduler.submit(new RefreshRequest(key));
+			else if (key.week == currentWeek()) scheduler.submit(new RefreshDayRequest(key, getDayOfWeekIndex()));
+		}
+	}
+	
+	private static int sizeDistance(SchemeKey a, SchemeKey b) {
+		return Math.abs(a.width - b.width) + Math.abs(a.height - b.height);
 	}
 	
 	private void toggleHide() {
@@ -223,180 +428,490 @@ public class Schema extends JLabel {
 	
 	/** Reloads the buffer. Should be called on resize or class change */
 	private void reloadBuffer() {
-		loadingQueue.offer(new int[]{0,0});
+		scheduler.submit(new ReloadRequest(true));
 	}
 	
-	private void selectClass() {
-		String id;
-		for (;;) { // fortsätt att loopa så länge klassen är invalid
-			id = JOptionPane.showInputDialog(
-					frame,
-					"Skriv in en id, lärare eller klassrum",
-					"Välj id",
-					JOptionPane.PLAIN_MESSAGE);
-			
-			if (id == null) {
-				if (this.isShowing()) return;
-				else System.exit(0);
-			}
-			
-			BufferedImage testScheme = getScheme(id, currentWeek(), 0,60, 20);
-			
-			if (isInvalidScheme(testScheme)) {
-				if (Boolean.parseBoolean(prop.getProperty(KEY_SHOW_ID_ERROR, "false"))) 
-					JOptionPane.showMessageDialog(
-							frame,
-							INVALID_ID_MESSAGE,
-							"Invalid id",
-							JOptionPane.ERROR_MESSAGE);
-				
-				continue;
-			}
+	/** Fetches the shown weeks again without clearing the buffer, so the old ones are shown meanwhile */
+	private void refreshBuffer() {
+		scheduler.submit(new ReloadRequest(false));
+	}
+	
+	/**
+	 * Shows scaled copies of the fetched schemes at the current size, so resizing doesn't have to wait for
+	 * the internet. The geometry is rescaled from the fetched schemes instead of being analyzed again.
+	 */
+	private void scaleBuffer() {
+		if (fetchedWidth == 0) return;
+		
+		SchemeKey shownKey = schemeKey(shownWeekNumber());
+		if (shownKey.width <= 0 || shownKey.height <= 0) return;
+		
+		for (int week : new int[]{
+				weekOfDate(shownDate().minusWeeks(1)),
+				shownWeekNumber(),
+				weekOfDate(shownDate().plusWeeks(1))}) {
 			
-			break;
+			SchemeKey key = schemeKey(week);
+			SchemeImage fetched = schemeBuffer.peek(key.withSize(fetchedWidth, fetchedHeight));
+			if (fetched == null || key.equals(key.withSize(fetchedWidth, fetchedHeight))) continue;
+			
+			schemeBuffer.putScaled(key, fetched.scaled(scaleScheme(fetched.image, key.width, key.height)));
+		}
+		
+		pinShownWeeks();
+		updateView(UnaryOperator.identity());
+	}
+	
+	/** Called when the size has settled, fetches sharp schemes if the size has changed enough */
+	private void refineSize() {
+		if (shownId() == null) return; // an id is being selected
+		
+		SchemeKey shownKey = schemeKey(shownWeekNumber());
+		
+		if (fetchedWidth == 0) {
+			reloadBuffer();
+		} else if (Math.abs(shownKey.width - fetchedWidth) > REFETCH_THRESHOLD
+				|| Math.abs(shownKey.height - fetchedHeight) > REFETCH_THRESHOLD) {
+			refreshBuffer();
+		}
+	}
+	
+	private static BufferedImage scaleScheme(BufferedImage scheme, int width, int height) {
+		BufferedImage scaled = createScreenImage(width, height);
+		
+		Graphics2D g2d = scaled.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2d.drawImage(scheme, 0, 0, width, height, null);
+		g2d.dispose();
+		
+		return scaled;
+	}
+	
+	/**
+	 * Copies a decoded scheme into the format of the screen. Java2D keeps such images on the graphics
+	 * card after they have been drawn a few times, while the palette images from ImageIO are converted
+	 * on every paint.
+	 */
+	private static BufferedImage toScreenImage(BufferedImage scheme) {
+		BufferedImage res = createScreenImage(scheme.getWidth(), scheme.getHeight());
+		
+		Graphics2D g2d = res.createGraphics();
+		g2d.drawImage(scheme, 0, 0, null);
+		g2d.dispose();
+		
+		return res;
+	}
+	
+	/** Creates an opaque image in the format of the screen, if it keeps the exact colours that the geometry looks for */
+	private static BufferedImage createScreenImage(int width, int height) {
+		if (!GraphicsEnvironment.isHeadless()) {
+			GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+					.getDefaultScreenDevice().getDefaultConfiguration();
+			
+			if (gc.getColorModel(Transparency.OPAQUE).getPixelSize() >= 24)
+				return gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+		}
+		
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+	
+	/** Asks for an id to show, exiting if it's cancelled when no id has been chosen before */
+	private void selectClass() {
+		IdPicker picker = new IdPicker(frame, this::fetchIdScheme);
+		String id = picker.pick();
+		
+		if (id == null) {
+			if (shownId() != null) return;
+			else System.exit(0);
 		}
 		
-		showId(id);
 		storeId(id);
+		
+		// the scheme fetched when checking the id is this week's, unless the size has changed meanwhile
+		SchemeKey key = schemeKey(id, currentWeek());
+		SchemeImage scheme = picker.getChosenScheme();
+		if (scheme.image.getWidth() == key.width && scheme.image.getHeight() == key.height)
+			putLoadedWeek(key, scheme);
+		
+		showId(id);
+	}
+	
+	/**
+	 * Fetches this week's scheme of <tt>id</tt> at the shown size, which tells if the id exists and is shown
+	 * right away if it's chosen. Cancelling the future aborts the fetch.
+	 */
+	private CompletableFuture<SchemeImage> fetchIdScheme(String id) {
+		SchemeKey key = schemeKey(id, currentWeek());
+		if (key.width <= 0 || key.height <= 0) key = key.withSize(60, 20); // not shown yet
+		SchemeKey fetchedKey = key;
+		
+		byte[] cached = diskCache.get(key);
+		CompletableFuture<byte[]> download = cached != null ? CompletableFuture.completedFuture(cached) : fetch(key);
+		
+		return cancelling(download, download.thenApply(data -> {
+			SchemeImage image = SchemeImage.of(toScreenImage(decode(data)));
+			if (cached == null && !image.geometry.invalid) diskCache.put(fetchedKey, data);
+			return image;
+		}));
+	}
+	
+	/** Makes cancelling <tt>derived</tt> cancel <tt>source</tt> too, which a future made from another doesn't */
+	private static <T> CompletableFuture<T> cancelling(CompletableFuture<?> source, CompletableFuture<T> derived) {
+		derived.whenComplete((result, e) -> {
+			if (derived.isCancelled()) source.cancel(true);
+		});
+		return derived;
 	}
 	
 	private void showId(String id) {
-		this.lastId = this.id;
-		this.id = id;
-		if (this.isShowing()) reloadBuffer();
+		lastId = shownId();
+		updateView(v -> v.withId(id));
+		scheduler.cancelIf(SchemeScheduler.Request::isStale);
+		if (this.isShowing()) refreshBuffer(); // the schemes of other ids are kept, packed, for swapping back
 	}
 	
-	/** Loads the class. If the cfg file hasn't been created it will create a new file */
-	private void loadProperties() {
-		FileInputStream in = null;
-		try {
-			in = new FileInputStream(PROPERTIES_PATH);
-			prop.load(in);
-		} catch (IOException e) {
-			selectClass();
-		} finally {
-			if (in != null) {
-				try {
-					in.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
+	private String shownId() {
+		return view.get().id;
+	}
+	
+	private LocalDate shownDate() {
+		return view.get().date;
+	}
+	
+	/** Shows the week of <tt>date</tt>, with the scheme in the buffer if it's there */
+	private void showDate(LocalDate date) {
+		updateView(v -> v.withDate(date));
+		pinShownWeeks();
+	}
+	
+	/**
+	 * Publishes a new view with <tt>change</tt> applied, showing the buffered scheme of its id and week
+	 * at the current size. With no change, it's how a newly buffered scheme is shown.
+	 */
+	private void updateView(UnaryOperator<ViewState> change) {
+		view.updateAndGet(v -> {
+			ViewState changed = change.apply(v);
+			if (changed.id == null) return changed;
+			
+			SchemeKey key = schemeKey(changed.id, weekOfDate(changed.date));
+			return changed.withScheme(key, schemeBuffer.peek(key));
+		});
+		repaint();
+		
+		// another week or scheme might move the line at other times
+		SwingUtilities.invokeLater(this::scheduleNowLine);
 	}
 	
+	/** Stores the id to be shown on the next start, first among the recently shown ids */
 	private void storeId(String id) {
-		store(KEY_ID, id);
+		List<String> recent = new ArrayList<>(recentIds());
+		recent.remove(id);
+		recent.add(0, id);
+		if (recent.size() > MAX_RECENT_IDS) recent = recent.subList(0, MAX_RECENT_IDS);
+		
+		Map<String, String> changes = new HashMap<>();
+		changes.put(KEY_ID, id);
+		changes.put(KEY_RECENT_IDS, String.join(",", recent));
+		prop.setProperties(changes);
+	}
+	
+	/** Gets the ids that have been shown, the last shown first */
+	private List<String> recentIds() {
+		String recent = prop.getProperty(KEY_RECENT_IDS, "");
+		return recent.isEmpty() ? Collections.emptyList() : Arrays.asList(recent.split(","));
 	}
 	
-	private void store(String key, String value) {
-		FileOutputStream out = null;
+	/**
+	 * Puts the scheme of this week from the last run in the buffer, with the geometry it had then, so that
+	 * it's shown on the first frame. It's put as a scaled scheme so that it's still loaded again.
+	 */
+	private void restoreLastScheme() {
+		String geometry = prop.getProperty(KEY_LAST_GEOMETRY);
+		if (shownId() == null || geometry == null) return;
+		
 		try {
-			out = new FileOutputStream(PROPERTIES_PATH);
+			int width = Integer.parseInt(prop.getProperty(KEY_LAST_WIDTH, "0"));
+			int height = Integer.parseInt(prop.getProperty(KEY_LAST_HEIGHT, "0"));
 			
-			prop.setProperty(key, value);
-			prop.store(out, null);
-		} catch (IOException e) {
+			SchemeKey key = new SchemeKey(shownId(), yearOfWeek(currentWeek()), currentWeek(), 0, width, height);
+			byte[] data = diskCache.getStale(key);
+			if (data == null) return;
+			
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+			if (image == null) return;
+			image = toScreenImage(image);
+			
+			SchemePixels pixels = new SchemePixels(image);
+			SchemeGeometry restored = SchemeGeometry.restore(pixels, geometry);
+			schemeBuffer.putScaled(key, new SchemeImage(image, restored != null ? restored : SchemeGeometry.analyze(pixels)));
+			
+			fetchedWidth = width;
+			fetchedHeight = height;
+		} catch (NumberFormatException | IOException e) {
 			e.printStackTrace();
-		} finally {
-			if (out != null) {
-				try {
-					out.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
 		}
 	}
 	
-	/** Shows the scheme for week <tt>week</tt>, assuming it's in the buffer */
-	private void setSchemeToWeek(int week) {
-		currentDate = currentDate.with(WEEK_NUMBER_FIELD, week);
-		repaint();
+	/**
+	 * Puts a week that has been loaded at the current size into the buffer, noting the size it was fetched
+	 * in if it's the shown week and remembering it if it's this week of the stored id
+	 */
+	private void putLoadedWeek(SchemeKey key, SchemeImage scheme) {
+		schemeBuffer.put(key, scheme);
+		
+		if (key.week == shownWeekNumber()) {
+			fetchedWidth = key.width;
+			fetchedHeight = key.height;
+		}
+		if (key.week == currentWeek() && key.id.equals(prop.getProperty(KEY_ID)))
+			rememberScheme(key, scheme);
 	}
 	
-	/** Gets an image containing the scheme for week <tt>week</tt> */
-	private BufferedImage getSchemeForWeek(int week) {
-		if (schemeBuffer.containsKey(week)) return schemeBuffer.get(week);
-		BufferedImage res = getScheme(id, week, 0,this.getWidth() + 2, this.getHeight() - textSpace + 1);
+	/** Stores the size and geometry of this week's scheme, so that it can be restored on the next start */
+	private void rememberScheme(SchemeKey key, SchemeImage scheme) {
+		if (scheme.geometry.invalid) return;
 		
-		if (res == null) {
-			frame.dispose();
-			
-			JOptionPane.showMessageDialog(
-					frame,
-					IMAGE_ERROR_MESSAGE,
-					"Kunde inte läsa schemat",
-					JOptionPane.ERROR_MESSAGE);
-			
-			System.exit(0);
-			return null;
+		String width = String.valueOf(key.width);
+		String height = String.valueOf(key.height);
+		String geometry = scheme.geometry.describe();
+		
+		Map<String, String> changes = new HashMap<>();
+		changes.put(KEY_LAST_WIDTH, width);
+		changes.put(KEY_LAST_HEIGHT, height);
+		changes.put(KEY_LAST_GEOMETRY, geometry);
+		prop.setProperties(changes); // only written if something has changed
+	}
+	
+	/**
+	 * Keeps the shown week and the weeks next to it from being removed from the buffer or packed, also at
+	 * the fetched size while the size differs, since {@link #scaleBuffer()} reads those on every resize
+	 */
+	private void pinShownWeeks() {
+		List<SchemeKey> keys = new ArrayList<>(6);
+		for (int week : new int[]{
+				weekOfDate(shownDate().minusWeeks(1)),
+				shownWeekNumber(),
+				weekOfDate(shownDate().plusWeeks(1))}) {
 			
-		} else
-			return res;
+			SchemeKey key = schemeKey(week);
+			keys.add(key);
+			if (fetchedWidth != 0) keys.add(key.withSize(fetchedWidth, fetchedHeight));
+		}
+		schemeBuffer.pin(keys);
+	}
+	
+	/** Gets the key of the whole week scheme for week <tt>week</tt> of the shown id, at the current size */
+	private SchemeKey schemeKey(int week) {
+		return schemeKey(shownId(), week);
+	}
+	
+	private SchemeKey schemeKey(String id, int week) {
+		return new SchemeKey(id, yearOfWeek(week), week, 0, this.getWidth() + 2, this.getHeight() - textSpace + 1);
+	}
+	
+	/** Gets an image containing the scheme for <tt>key</tt>, with its geometry */
+	private CompletableFuture<SchemeImage> getSchemeForWeek(SchemeKey key) {
+		SchemeImage buffered = schemeBuffer.get(key);
+		if (buffered != null) return CompletableFuture.completedFuture(buffered);
+		
+		return getScheme(key.id, key.week, 0, key.width, key.height).thenApply(image -> SchemeImage.of(toScreenImage(image)));
+	}
+	
+	/**
+	 * Shows a somewhat bigger fetched scheme scaled down to <tt>key</tt> until the scheme for it arrives,
+	 * which looks almost the same when it's not too much smaller
+	 */
+	private void showDownscaled(SchemeKey key) {
+		SchemeImage bigger = schemeBuffer.findBigger(key, MIN_DOWNSCALE);
+		if (bigger == null) return;
+		
+		metrics.downscaled();
+		schemeBuffer.putScaled(key, bigger.scaled(scaleScheme(bigger.image, key.width, key.height)));
+		updateView(UnaryOperator.identity());
+	}
+	
+	/** Makes a copy of <tt>week</tt> with day <tt>day</tt> replaced by <tt>tile</tt> */
+	private static SchemeImage pasteTile(SchemeImage week, SchemeImage tile, int day) {
+		return pasteTile(week, week.geometry, tile, day);
+	}
+	
+	/** Makes a copy of <tt>week</tt> with day <tt>day</tt> replaced by <tt>tile</tt>, placed by <tt>geometry</tt> */
+	private static SchemeImage pasteTile(SchemeImage week, SchemeGeometry geometry, SchemeImage tile, int day) {
+		BufferedImage image = createScreenImage(week.image.getWidth(), week.image.getHeight());
+		Graphics2D g2d = image.createGraphics();
+		g2d.drawImage(week.image, 0, 0, null);
+		g2d.dispose();
+		
+		SchemeTiles.paste(image, geometry, tile, day);
+		return new SchemeImage(image, geometry.scaled(new SchemePixels(image)), week.resampled, null);
+	}
+	
+	/** Puts a scheme that has been put together here in the disk cache, so that it isn't replaced by the old one */
+	private void storeScheme(SchemeKey key, SchemeImage scheme) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(scheme.image, "png", out);
+			diskCache.put(key, out.toByteArray());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Shows a scheme that has been fetched again and found to have changed, scaling it to the current size
+	 * if it was fetched in another size and a scaled copy of the old one is shown
+	 */
+	private void swapIn(SchemeKey key, SchemeImage fresh) {
+		schemeBuffer.put(key, fresh);
+		if (key.week == currentWeek() && key.id.equals(prop.getProperty(KEY_ID)))
+			rememberScheme(key, fresh);
+		
+		SchemeKey shown = schemeKey(key.week);
+		if (!shown.equals(key) && shown.equals(key.withSize(shown.width, shown.height))
+				&& !schemeBuffer.contains(shown) && schemeBuffer.peek(shown) != null)
+			schemeBuffer.putScaled(shown, fresh.scaled(scaleScheme(fresh.image, shown.width, shown.height)));
+		
+		updateView(UnaryOperator.identity());
 	}
 	
-	private static final List<String> CLASSROOMS = Arrays.asList(
+	static final List<String> CLASSROOMS = Arrays.asList(
 			"B212", "B213", "B215", "B216", "B218a", "B218b",
 			"B305", "B306", "B308", "B309", "B311a", "B311b",
 			"B404", "B406", "B408", "B409", "B411a", "B411b",
 			"D101", "D102", "D202"
 	);
 	
+	private static final String[] DAY_NAMES = {"Måndag", "Tisdag", "Onsdag", "Torsdag", "Fredag"};
+	
+	/** Asks for a number of ids and shows when they are all free in the shown week */
+	private void findCommonFreeSlots() {
+		JTextField idField = new JTextField(shownId() + (lastId != null ? " " + lastId : ""));
+		JSpinner minutesSpinner = new JSpinner(new SpinnerNumberModel(40, 5, 540, 5));
+		
+		int option = JOptionPane.showConfirmDialog(
+				frame,
+				new Object[]{"Id:n, med mellanslag mellan", idField, "Lediga i minst (minuter)", minutesSpinner},
+				"Gemensamma lediga tider",
+				JOptionPane.OK_CANCEL_OPTION,
+				JOptionPane.PLAIN_MESSAGE);
+		if (option != JOptionPane.OK_OPTION) return;
+		
+		String text = idField.getText().trim();
+		if (text.isEmpty()) return;
+		List<String> ids = Arrays.asList(text.split("[\\s,]+"));
+		int minutes = (Integer) minutesSpinner.getValue();
+		int week = shownWeekNumber();
+		
+		// all of them are fetched at once, so it takes about as long as fetching one
+		CompletableFuture<CommonFreeSlots> search = CommonFreeSlots.find(ids, id -> fetchLessons(id, week));
+		
+		JOptionPane pane = new JOptionPane(
+				"Vänta...",
+				JOptionPane.INFORMATION_MESSAGE,
+				JOptionPane.DEFAULT_OPTION,
+				null,
+				new String[]{"Avbryt"},
+				"Avbryt");
+		
+		JDialog loadingDialog = pane.createDialog(frame, "Gemensamma lediga tider");
+		loadingDialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+		search.whenComplete((slots, e) -> SwingUtilities.invokeLater(() ->
+				loadingDialog.dispatchEvent(new WindowEvent(loadingDialog, WindowEvent.WINDOW_CLOSING))));
+		loadingDialog.setVisible(true);
+		
+		if (!search.isDone()) { // avbryt eller stängd
+			search.cancel(true);
+			return;
+		}
+		
+		String message;
+		try {
+			message = formatFreeSlots(search.join(), minutes);
+		} catch (CompletionException e) {
+			e.printStackTrace();
+			message = e.getCause() instanceof NoSuchElementException
+					? INVALID_ID_MESSAGE + ": " + e.getCause().getMessage()
+					: IO_ERROR_MESSAGE;
+		}
+		
+		JOptionPane.showMessageDialog(
+				frame,
+				message,
+				"Gemensamma lediga tider v." + week + ", " + String.join(" ", ids),
+				JOptionPane.INFORMATION_MESSAGE);
+	}
+	
+	/** Fetches the lessons of <tt>id</tt> in week <tt>week</tt>, failing with a <tt>NoSuchElementException</tt> if the id doesn't exist */
+	private CompletableFuture<SchemeLessons> fetchLessons(String id, int week) {
+		CompletableFuture<BufferedImage> scheme = fetchScheme(id, week, 0, 500, 400);
+		return cancelling(scheme, scheme.thenApply(image -> {
+			SchemeImage lessons = SchemeImage.of(image);
+			if (lessons.geometry.invalid) throw new CompletionException(new NoSuchElementException(id));
+			return lessons.lessons();
+		}));
+	}
+	
+	/**
+	 * Gets the lessons of <tt>id</tt> in week <tt>week</tt> from the disk cache if it's at most <tt>maxAge</tt>
+	 * milliseconds old, otherwise like {@link #fetchLessons} and storing it in the disk cache
+	 */
+	private CompletableFuture<SchemeLessons> storedLessons(String id, int week, long maxAge) {
+		SchemeKey key = new SchemeKey(id, yearOfWeek(week), week, 0, 500, 400);
+		
+		byte[] cached = diskCache.getNewerThan(key, maxAge);
+		CompletableFuture<byte[]> data = cached != null ? CompletableFuture.completedFuture(cached) : fetch(key);
+		
+		return data.thenApply(bytes -> {
+			SchemeImage image = SchemeImage.of(decode(bytes));
+			if (image.geometry.invalid) throw new CompletionException(new NoSuchElementException(id));
+			
+			if (cached == null) diskCache.put(key, bytes);
+			return image.lessons();
+		});
+	}
+	
+	private static String formatFreeSlots(CommonFreeSlots slots, int minutes) {
+		DateTimeFormatter format = DateTimeFormatter.ofPattern("HH:mm");
+		LocalTime start = LocalTime.of(8, 0);
+		
+		StringBuilder b = new StringBuilder();
+		for (int day = 0; day < DAY_NAMES.length; day++) {
+			int[] free = slots.free(day, minutes);
+			
+			b.append(DAY_NAMES[day]).append(": ");
+			if (free.length == 0) b.append('-');
+			for (int i = 0; i < free.length; i += 2) {
+				if (i > 0) b.append(", ");
+				b.append(start.plusMinutes(free[i]).format(format))
+						.append('–')
+						.append(start.plusMinutes(free[i + 1]).format(format));
+			}
+			b.append('\n');
+		}
+		
+		return b.toString();
+	}
+	
 	private void findEmptyClassrooms() {
-		int tempDay = getDayOfWeekIndex();
-		if (tempDay > 4) return;
-		tempDay = 1 << tempDay;
-		int day = tempDay;
+		int dayIndex = getDayOfWeekIndex();
+		if (dayIndex > 4) return;
+		int day = 1 << dayIndex;
 		LocalTime relativeSchemeTime = LocalDateTime.now().toLocalTime().minusHours(8);
+		int minMinutes = 0;
 		
 		do {
 			if (relativeSchemeTime.get(ChronoField.HOUR_OF_DAY) > 9)
 				return;
 			
 			LocalTime schemeTime = relativeSchemeTime.plusHours(8);
+			int minute = relativeSchemeTime.toSecondOfDay() / 60;
 			
-			JOptionPane pane = new JOptionPane(
-					"Vänta...",
-					JOptionPane.INFORMATION_MESSAGE,
-					JOptionPane.DEFAULT_OPTION,
-					null,
-					new String[]{"Avbryt"},
-					"Avbryt");
-			
-			JDialog loadingDialog = pane.createDialog(frame,"Lediga klassrum");
-			loadingDialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
-			
-			int schemeRelativeY = getSchemeRelativeY(relativeSchemeTime, 400, 23);
-			List<String> emptyClassrooms = new ArrayList<>();
-			
-			new SwingWorker<Void, Void>() {
-				@Override
-				protected Void doInBackground() {
-					for (String classroom : CLASSROOMS) {
-						BufferedImage scheme =
-								getScheme(
-										classroom,
-										currentWeek(), day,
-										40, 400);
-						
-						if (scheme.getRGB(1, schemeRelativeY) == SCHEME_BG_RGB)
-							emptyClassrooms.add(classroom);
-					}
-					
-					return null;
-				}
-				
-				@Override
-				protected void done() { // close it fancily
-					loadingDialog.dispatchEvent(new WindowEvent(loadingDialog, WindowEvent.WINDOW_CLOSING));
-				}
-			}.execute();
-			loadingDialog.setVisible(true);
-			
-			Object selectedValue = pane.getValue();
-			if (selectedValue != null && selectedValue.toString().equals("Avbryt")) {
-				return;
+			List<String> emptyClassrooms;
+			if (occupancyIndex != null && occupancyIndex.isReady(currentWeek())) {
+				emptyClassrooms = occupancyIndex.freeFor(dayIndex, minute, minMinutes);
+			} else {
+				emptyClassrooms = scanEmptyClassrooms(day, minute, minMinutes);
+				if (emptyClassrooms == null) return;
 			}
 			
 			JEditorPane ep = formatClassroomList(emptyClassrooms);
@@ -406,16 +921,17 @@ public class Schema extends JLabel {
 				}
 			});
 			
-			pane = new JOptionPane(
+			JOptionPane pane = new JOptionPane(
 					ep,
 					JOptionPane.INFORMATION_MESSAGE,
 					JOptionPane.DEFAULT_OPTION,
 					null,
-					new String[]{"OK", "Lediga kl...", "Lediga om 20 min"},
+					new String[]{"OK", "Lediga kl...", "Lediga om 20 min", "Lediga i minst..."},
 					"OK");
 			
 			JDialog dialog = pane.createDialog(frame, "Lediga klassrum " 
-					+ schemeTime.format(DateTimeFormatter.ofPattern("HH:mm")));
+					+ schemeTime.format(DateTimeFormatter.ofPattern("HH:mm"))
+					+ (minMinutes > 0 ? " i minst " + minMinutes + " min" : ""));
 			dialog.setVisible(true);
 			String optionSelected = ((String) pane.getValue());
 			if (optionSelected == null || optionSelected.equals("OK")) {
@@ -455,11 +971,48 @@ public class Schema extends JLabel {
 					break;
 				}
 				
+			} else if (optionSelected.equals("Lediga i minst...")) {
+				SpinnerNumberModel model = new SpinnerNumberModel(Math.max(minMinutes, 40), 0, 540, 5);
+				JSpinner spinner = new JSpinner(model);
+				
+				pane = new JOptionPane(spinner);
+				pane.createDialog(frame, "Antal minuter").setVisible(true);
+				minMinutes = (Integer) spinner.getValue();
+				
 			} else relativeSchemeTime = relativeSchemeTime.plusMinutes(20);
 			
 		} while (true);
 	}
 	
+	/**
+	 * Finds the empty classrooms by fetching them all, while showing a dialog that can cancel it
+	 *
+	 * @return the empty classrooms, or null if it was cancelled
+	 */
+	private List<String> scanEmptyClassrooms(int day, int minute, int minMinutes) {
+		JOptionPane pane = new JOptionPane(
+				"Vänta...",
+				JOptionPane.INFORMATION_MESSAGE,
+				JOptionPane.DEFAULT_OPTION,
+				null,
+				new String[]{"Avbryt"},
+				"Avbryt");
+		
+		JDialog loadingDialog = pane.createDialog(frame,"Lediga klassrum");
+		loadingDialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+		
+		ClassroomScan scan = new ClassroomScan(pane, day, minute, minMinutes);
+		scan.execute();
+		loadingDialog.setVisible(true);
+		
+		if (!scan.isDone()) { // avbryt eller stängd
+			scan.cancel(true);
+			return null;
+		}
+		
+		return scan.getEmptyClassrooms();
+	}
+	
 	private JEditorPane formatClassroomList(List<String> classroooms) {
 		StringBuilder b2 = new StringBuilder("Våning 2: ");
 		StringBuilder b3 = new StringBuilder("Våning 3: ");
@@ -505,19 +1058,32 @@ public class Schema extends JLabel {
 	 * @param schemeHeight the height of the current scheme
 	 * @param timeStartY the y position where the date label ends and the scheduled lessons begin
 	 */
-	private int getSchemeRelativeY(LocalTime schemeRelativeTime, int schemeHeight, int timeStartY) {
-		return (schemeHeight - timeStartY - 1) * schemeRelativeTime.toSecondOfDay() / SCHEME_LENGTH + timeStartY;
+	private static int getSchemeRelativeY(LocalTime schemeRelativeTime, int schemeHeight, int timeStartY) {
+		return (schemeHeight - timeStartY - 1) * schemeRelativeTime.toSecondOfDay() / SchemeGeometry.SCHEME_LENGTH + timeStartY;
 	}
 	
 	@Override
 	protected void paintComponent(Graphics g) {
 		Graphics2D g2d = (Graphics2D) g;
 		
-		int week = shownWeekNumber();
-		if (showStrings) {
+		long start = System.nanoTime();
+		SchemeMetrics.PaintEvent event = metrics.paintStarted(getWidth(), getHeight());
+		paintScheme(g2d);
+		paintStatus(g2d);
+		metrics.painted(event, start);
+		
+		if (showMetrics) paintMetrics(g2d);
+	}
+	
+	private void paintScheme(Graphics2D g2d) {
+		ViewState shown = view.get();
+		if (shown.id == null) return;
+		
+		int week = weekOfDate(shown.date);
+		if (showStrings) {
 			String weekString = "V." + week;
 			
-			int weekDiff = weeksBetween(LocalDate.now(), currentDate);
+			int weekDiff = weeksBetween(LocalDate.now(), shown.date);
 			if (weekDiff != 0)
 				weekString += String.format(" (%s%d)", (weekDiff > 0 ? "+" : ""), weekDiff);
 			
@@ -534,47 +1100,169 @@ public class Schema extends JLabel {
 					stringHeight);
 			
 			g2d.drawString(
-					id,
-					(getWidth() - fm.stringWidth(id)) / 4,
+					shown.id,
+					(getWidth() - fm.stringWidth(shown.id)) / 4,
 					stringHeight);
 		}
 		
-		BufferedImage scheme = schemeBuffer.get(week);
+		SchemeImage scheme = shown.scheme;
 		
 		if (scheme == null)
 			return;
 		
-		g2d.drawImage(scheme, 0, textSpace, null);
+		g2d.drawImage(scheme.image, 0, textSpace, null);
 		
-		if (week != currentWeek()) 
-			return;
+		if (scheme.changes != null) { // two pixels wide, inside the lessons
+			g2d.setColor(CHANGE_COLOR);
+			int[] changes = scheme.changes;
+			for (int i = 0; i < changes.length; i += 4) {
+				g2d.drawRect(changes[i], changes[i + 1] + textSpace, changes[i + 2] - 1, changes[i + 3] - 1);
+				g2d.drawRect(changes[i] + 1, changes[i + 1] + textSpace + 1, changes[i + 2] - 3, changes[i + 3] - 3);
+			}
+		}
 		
-		int dayOfWeek = getDayOfWeekIndex();
-		if (dayOfWeek >= 5) 
+		if (!firstPaintReported) {
+			firstPaintReported = true;
+			metrics.firstPainted(START_TIME);
+		}
+		
+		int schemeRelativeY = nowLineY(shown);
+		paintedLineY = schemeRelativeY < 0 ? -1 : schemeRelativeY + textSpace;
+		paintedDate = LocalDate.now();
+		
+		if (schemeRelativeY < 0)
 			return;
 		
+		g2d.setColor(LINE_COLOR);
+		
+		int[] segments = scheme.geometry.lineSegments(getDayOfWeekIndex(), schemeRelativeY);
+		for (int i = 0; i < segments.length; i += 2) { // draw the red line where there are no lessons
+			g2d.fillRect(segments[i], paintedLineY, segments[i + 1] - segments[i], 1);
+		}
+	}
+	
+	/** Gets the scheme relative y position of the now line, or -1 if it isn't shown in <tt>shown</tt> right now */
+	private static int nowLineY(ViewState shown) {
+		if (shown.scheme == null || weekOfDate(shown.date) != currentWeek())
+			return -1;
+		
+		if (getDayOfWeekIndex() >= 5)
+			return -1;
+		
 		LocalTime relativeSchemeTime = LocalDateTime.now().toLocalTime().minusHours(8);
-		if (relativeSchemeTime.get(ChronoField.HOUR_OF_DAY) >= 9) 
+		if (relativeSchemeTime.get(ChronoField.HOUR_OF_DAY) >= 9)
+			return -1;
+		
+		SchemeGeometry geometry = shown.scheme.geometry;
+		return getSchemeRelativeY(relativeSchemeTime, geometry.height, geometry.timeStartY);
+	}
+	
+	/**
+	 * Starts the timer for when the now line moves a pixel next, or stops it while the window is hidden
+	 * or minimized, pausing the occupancy index with it. When no line is shown it only wakes up at 8:00 on school days and at midnight, when
+	 * the week labels and the current week might change.
+	 */
+	private void scheduleNowLine() {
+		lineUpdateTimer.stop();
+		boolean hidden = frame == null || !frame.isShowing() || (frame.getExtendedState() & Frame.ICONIFIED) != 0;
+		if (occupancyIndex != null) occupancyIndex.setPaused(hidden); // nobody asks for free rooms either
+		if (hidden) return;
+		
+		long delay = nextLineMove(view.get(), LocalDateTime.now());
+		lineUpdateTimer.setInitialDelay((int) Math.max(10, Math.min(Integer.MAX_VALUE, delay)));
+		lineUpdateTimer.start();
+	}
+	
+	/** Gets the number of milliseconds from <tt>now</tt> until the now line moves or appears, or until midnight */
+	private static long nextLineMove(ViewState shown, LocalDateTime now) {
+		long untilMidnight = ChronoUnit.MILLIS.between(now, now.toLocalDate().plusDays(1).atStartOfDay());
+		
+		if (shown.scheme == null || weekOfDate(shown.date) != currentWeek() || getDayOfWeekIndex() >= 5)
+			return untilMidnight;
+		
+		LocalDateTime start = now.toLocalDate().atTime(8, 0);
+		if (now.isBefore(start))
+			return ChronoUnit.MILLIS.between(now, start);
+		
+		long millis = ChronoUnit.MILLIS.between(start, now);
+		long seconds = millis / 1000;
+		if (seconds >= SchemeGeometry.SCHEME_LENGTH)
+			return untilMidnight;
+		
+		SchemeGeometry geometry = shown.scheme.geometry;
+		long scale = geometry.height - geometry.timeStartY - 1;
+		if (scale <= 0)
+			return untilMidnight;
+		
+		// the line is at scale * seconds / SCHEME_LENGTH, so it moves at the first second that reaches the next pixel
+		long pixel = scale * seconds / SchemeGeometry.SCHEME_LENGTH;
+		long nextSecond = ((pixel + 1) * SchemeGeometry.SCHEME_LENGTH + scale - 1) / scale;
+		return nextSecond * 1000 - millis;
+	}
+	
+	/**
+	 * Repaints only the rows where the now line was painted and where it is now, since that's all that
+	 * changes with the time. Everything is repainted on a new day, when the week labels might change.
+	 */
+	private void repaintNowLine() {
+		if (!LocalDate.now().equals(paintedDate)) {
+			repaint();
 			return;
+		}
 		
-		g2d.setColor(LINE_COLOR);
-		g2d.setStroke(new BasicStroke(1));
+		int y = nowLineY(view.get());
+		int lineY = y < 0 ? -1 : y + textSpace;
+		if (lineY == paintedLineY) return;
 		
-		int x = daySeparators.get(dayOfWeek) + 1;
+		if (paintedLineY >= 0) repaint(0, paintedLineY, getWidth(), 1);
+		if (lineY >= 0) repaint(0, lineY, getWidth(), 1);
+	}
+	
+	/** Paints what's wrong with fetching in the top right corner, if anything is */
+	private void paintStatus(Graphics2D g2d) {
+		String status = this.status;
+		if (status == null) return;
 		
-		int schemeRelativeY = getSchemeRelativeY(relativeSchemeTime, scheme.getHeight(), timeStartY);
-		int frameRelativeY = schemeRelativeY + textSpace;
+		g2d.setRenderingHint(
+				RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
 		
-		int bgRGB = scheme.getRGB(x, schemeRelativeY); // gets the background rgb
+		FontMetrics fm = g2d.getFontMetrics();
+		int stringHeight = ((Math.max(textSpace, fm.getHeight()) - fm.getHeight()) / 2) + fm.getAscent();
 		
-		for (; x <= daySeparators.get(dayOfWeek + 1) - 1; x++) { // draw the red line where the colour isn't bgRGB
-			int posRGB = scheme.getRGB(x, schemeRelativeY);
-			if (posRGB == bgRGB || posRGB == SCHEME_BG_RGB) {
-				g.drawRect(x, frameRelativeY, 0, 0);
-			}
+		g2d.setColor(LINE_COLOR);
+		g2d.drawString(status, getWidth() - fm.stringWidth(status) - 4, stringHeight);
+	}
+	
+	/** Paints the metrics in the bottom left corner */
+	private void paintMetrics(Graphics2D g2d) {
+		List<String> lines = metrics.describe();
+		FontMetrics fm = g2d.getFontMetrics();
+		
+		int width = 0;
+		for (String line : lines) width = Math.max(width, fm.stringWidth(line));
+		int height = lines.size() * fm.getHeight();
+		int y = getHeight() - height - 8;
+		
+		g2d.setColor(new Color(0, 0, 0, 180));
+		g2d.fillRect(4, y - 4, width + 8, height + 8);
+		
+		g2d.setColor(Color.WHITE);
+		for (String line : lines) {
+			g2d.drawString(line, 8, y + fm.getAscent());
+			y += fm.getHeight();
 		}
 	}
 	
+	/** Shows <tt>status</tt> in the corner with <tt>details</tt> as tooltip, or nothing if it's null */
+	private void setStatus(String status, String details) {
+		this.status = status;
+		SwingUtilities.invokeLater(() -> {
+			setToolTipText(details);
+			repaint();
+		});
+	}
+	
 	private static int weeksBetween(LocalDate start, LocalDate end) {
 		start = start.with(ChronoField.DAY_OF_WEEK, 1);
 		end = end.with(ChronoField.DAY_OF_WEEK, 1);
@@ -594,40 +1282,128 @@ public class Schema extends JLabel {
 		return weeks;
 	}
 	
+	private static final String DEFAULT_SERVER = "http://www.novasoftware.se";
 	private static final String FORMATTING_STRING =
-			"http://www.novasoftware.se/ImgGen/schedulegenerator.aspx?format=png&schoolid=29120/sv-se&id=%s&period=&week=%d&day=%d&width=%d&height=%d";
+			"%s/ImgGen/schedulegenerator.aspx?format=png&schoolid=29120/sv-se&id=%s&period=&week=%d&day=%d&width=%d&height=%d";
+	
+	/** Where the schemes are fetched from, novasoftware or a {@link SchemeProxy} */
+	private static volatile String server = DEFAULT_SERVER;
 	
-	private BufferedImage getScheme(String klass, int week, int day, int width, int height) {
-		while (true) {
+	static void setServer(String server) {
+		while (server.endsWith("/")) server = server.substring(0, server.length() - 1);
+		Schema.server = server;
+	}
+	
+	static String schemeURL(String klass, int week, int day, int width, int height) {
+		return String.format(
+				FORMATTING_STRING,
+				server,
+				URLEncoder.encode(klass, StandardCharsets.UTF_8).replace("+", "%20"), // so that an id can't add parameters
+				week, day, width, height);
+	}
+	
+	/** Gets the scheme from the disk cache if it's there, otherwise from the internet */
+	private CompletableFuture<BufferedImage> getScheme(String klass, int week, int day, int width, int height) {
+		SchemeKey key = new SchemeKey(klass, yearOfWeek(week), week, day, width, height);
+		
+		byte[] cached = diskCache.get(key);
+		if (cached != null) {
 			try {
-				return ImageIO.read(
-						new URL(String.format(
-								FORMATTING_STRING, 
-								klass.replace(" ", "%20"), 
-								week, day, width, height)));
-				
-			} catch (IOException e) {
-				int optionChosen = JOptionPane.showOptionDialog(
-						frame,
-						IO_ERROR_MESSAGE,
-						"Kunde inte ansluta",
-						JOptionPane.DEFAULT_OPTION,
-						JOptionPane.ERROR_MESSAGE,
-						null,
-						new String[]{"OK", "Försök igen"},
-						"OK"
-				);
-				
-				if (optionChosen == 0) break;
+				return CompletableFuture.completedFuture(decode(cached));
+			} catch (CompletionException e) {
+				e.printStackTrace();
 			}
 		}
 		
-		System.exit(0);
-		throw new RuntimeException();
+		return fetch(key).thenApply(data -> {
+			BufferedImage scheme;
+			try {
+				scheme = decode(data);
+			} catch (CompletionException e) {
+				setStatus(IMAGE_ERROR_STATUS, IMAGE_ERROR_MESSAGE);
+				throw e;
+			}
+			
+			diskCache.put(key, data);
+			return scheme;
+		});
+	}
+	
+	/** Gets the scheme from the internet without using the disk cache. Cancelling the future aborts the fetch */
+	private CompletableFuture<BufferedImage> fetchScheme(String klass, int week, int day, int width, int height) {
+		CompletableFuture<byte[]> download = fetch(new SchemeKey(klass, yearOfWeek(week), week, day, width, height));
+		return cancelling(download, download.thenApply(this::decode));
+	}
+	
+	/**
+	 * Fetches the scheme for <tt>key</tt>, waiting for the same download if it's already being fetched.
+	 * Cancelling the future aborts the download if nothing else is waiting for it.
+	 */
+	private CompletableFuture<byte[]> fetch(SchemeKey key) {
+		return fetches.fetch(key);
+	}
+	
+	/** Downloads the scheme for <tt>key</tt>, recording how long it took. Cancelling the future aborts it */
+	private CompletableFuture<byte[]> download(SchemeKey key) {
+		long start = System.nanoTime();
+		SchemeMetrics.FetchEvent event = metrics.fetchStarted(key);
+		
+		CompletableFuture<byte[]> fetch = client.fetch(schemeURL(key.id, key.week, key.day, key.width, key.height));
+		fetch.whenComplete((data, e) -> metrics.fetched(event, start, e == null));
+		return fetch;
+	}
+	
+	/** Decodes a fetched scheme, failing with an <tt>IOException</tt> if it isn't an image */
+	private BufferedImage decode(byte[] data) {
+		long start = System.nanoTime();
+		SchemeMetrics.DecodeEvent event = metrics.decodeStarted(data.length);
+		try {
+			BufferedImage scheme = ImageIO.read(new ByteArrayInputStream(data));
+			if (scheme == null) throw new IOException("Not an image");
+			
+			// a scheme that couldn't be read was a single bad image, unlike failing fetches which end when one works
+			if (IMAGE_ERROR_STATUS.equals(status)) setStatus(null, null);
+			return scheme;
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		} finally {
+			metrics.decoded(event, start);
+		}
+	}
+	
+	/** Shows in the corner when fetching fails, until a fetch works again */
+	class FetchStatus implements SchemeClient.StatusListener {
+		
+		@Override
+		public void failed(Throwable cause, long retryIn) {
+			setStatus(retryIn < 0 ? "Kunde inte ansluta" : "Kunde inte ansluta, försöker igen...", IO_ERROR_MESSAGE);
+		}
+		
+		@Override
+		public void recovered() {
+			setStatus(null, null);
+		}
+	}
+	
+	private synchronized ExecutorService getFetchPool() {
+		if (fetchPool == null) {
+			fetchPool = Executors.newFixedThreadPool(fetchThreads(), r -> {
+				Thread t = new Thread(r, "fetch");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		
+		return fetchPool;
+	}
+	
+	/** Gets the number of schemes that are fetched at the same time, and threads that handle them */
+	private int fetchThreads() {
+		return Math.max(1, Integer.parseInt(prop.getProperty(KEY_FETCH_THREADS, String.valueOf(CLASSROOMS.size()))));
 	}
 	
 	private int shownWeekNumber() {
-		return weekOfDate(currentDate);
+		return weekOfDate(shownDate());
 	}
 	
 	private static int weekOfDate(LocalDate localDate) {
@@ -642,12 +1418,21 @@ public class Schema extends JLabel {
 		return LocalDate.now().getDayOfWeek().getValue() - 1;
 	}
 	
-	private static int currentWeek() {
-		return (LocalDate.now().plusDays(2).get( WeekFields.of(Locale.getDefault() ).weekOfWeekBasedYear()));
+	/** Gets the week based year that week <tt>week</tt> belongs to, being the one closest to today */
+	static int yearOfWeek(int week) {
+		LocalDate now = LocalDate.now();
+		LocalDate date = now.with(WEEK_NUMBER_FIELD, week);
+		
+		int year = date.get(WeekFields.ISO.weekBasedYear());
+		long weeksAway = ChronoUnit.WEEKS.between(now, date);
+		
+		if (weeksAway > 26) return year - 1;
+		if (weeksAway < -26) return year + 1;
+		return year;
 	}
 	
-	private static boolean isInvalidScheme(BufferedImage scheme) {
-		return (scheme.getRGB(0, 0) ^ scheme.getRGB(0, 1)) == 0x00ffffcc;
+	static int currentWeek() {
+		return (LocalDate.now().plusDays(2).get( WeekFields.of(Locale.getDefault() ).weekOfWeekBasedYear()));
 	}
 	
 	class SetWeekAction extends AbstractAction {
@@ -660,107 +1445,431 @@ public class Schema extends JLabel {
 		
 		@Override
 		public void actionPerformed(ActionEvent e) {
+			LocalDate shown = shownDate();
 			
-			LocalDate showWeek;
-			LocalDate loadWeek = currentDate;
-			
-			if (inc) {
-				showWeek = currentDate.plusWeeks(1);
-				loadWeek = loadWeek.plusWeeks(2);
-			} else {
-				showWeek = currentDate.minusWeeks(1);
-				loadWeek = loadWeek.minusWeeks(2);
-			}
+			int direction = inc ? 1 : -1;
+			LocalDate showWeek = shown.plusWeeks(direction);
 			
 			if (Boolean.parseBoolean(prop.getProperty(KEY_PREVENT_OUT_OF_BOUNDS, "true"))) {
-				BufferedImage img;
-				do {
-					img = schemeBuffer.get(weekOfDate(showWeek));
-					if (img != null) break;
-					try {
-						schemeBufferLock.lock();
-					} finally {
-						schemeBufferLock.unlock();
-					}
-				} while (true);
+				SchemeKey key = schemeKey(weekOfDate(showWeek));
+				CompletableFuture<SchemeImage> img = schemeBuffer.future(key);
 				
-				if (isInvalidScheme(img)) return;
+				if (!img.isDone()) { // try again when it has been loaded, unless something else has been shown
+					scheduler.submit(new LoadWeekRequest(key, SchemeScheduler.Priority.VISIBLE));
+					img.thenRun(() -> SwingUtilities.invokeLater(() -> {
+						if (shownDate().equals(shown)) actionPerformed(e);
+					}));
+					return;
+				}
+				
+				if (img.join().geometry.invalid) return;
 			}
 			
-			currentDate = showWeek;
-			setSchemeToWeek(weekOfDate(showWeek));
-			
-			loadingQueue.offer(new int[]{ weekOfDate(loadWeek) });
+			showDate(showWeek);
+			prefetch(showWeek, direction, prefetchPolicy.record(direction, e.getWhen()));
 		}
 	}
 	
-	class RequestThread extends Thread {
+	/**
+	 * Loads the next week after <tt>shown</tt> in <tt>direction</tt>, and prefetches the weeks after it
+	 * up to <tt>weeks</tt> weeks ahead. Prefetches in the other direction aren't needed anymore.
+	 */
+	private void prefetch(LocalDate shown, int direction, int weeks) {
+		scheduler.cancelIf(r -> r instanceof PrefetchRequest && ((PrefetchRequest) r).direction != direction);
+		
+		scheduler.submit(new LoadWeekRequest(
+				schemeKey(weekOfDate(shown.plusWeeks(direction))), SchemeScheduler.Priority.NEIGHBOUR));
+		
+		for (int i = 2; i <= weeks; i++)
+			scheduler.submit(new PrefetchRequest(shown, direction, i));
+	}
+	
+	/**
+	 * Checks which classrooms are empty by fetching all of them at once, showing the progress
+	 * in <tt>pane</tt> as each classroom arrives. Cancelling aborts the fetches still running.
+	 */
+	class ClassroomScan extends SwingWorker<Void, String> {
+		
+		private final JOptionPane pane;
+		private final int day;
+		/** The minute from 8:00 to check */
+		private final int minute;
+		/** The number of minutes the classroom has to be free for */
+		private final int minMinutes;
+		
+		private final List<String> emptyClassrooms = Collections.synchronizedList(new ArrayList<>());
+		private final List<CompletableFuture<byte[]>> fetches = new ArrayList<>();
+		private int finished;
+		
+		ClassroomScan(JOptionPane pane, int day, int minute, int minMinutes) {
+			this.pane = pane;
+			this.day = day;
+			this.minute = minute;
+			this.minMinutes = minMinutes;
+		}
+		
 		@Override
-		public void run() {
-			//noinspection InfiniteLoopStatement
-			for (;;) {
-				try {
-					int[] request = loadingQueue.take();
-					
-					schemeBufferLock.lock();
-					
-					// if there is more than 1 argument, resize instead of showing the week
-					if (request.length > 1) {
-						if (request.length == 2) schemeBuffer.clear();
-						reloadBuffer();
-						continue;
-					}
-					
-					int loadWeek = request[0];
-					
-					if (!schemeBuffer.containsKey(loadWeek))
-						schemeBuffer.put(loadWeek, getSchemeForWeek(loadWeek));
+		protected Void doInBackground() throws InterruptedException {
+			int week = currentWeek();
+			
+			// the checks in the order they finish
+			BlockingQueue<CompletableFuture<String>> checked = new LinkedBlockingQueue<>();
+			synchronized (fetches) {
+				for (String classroom : CLASSROOMS) {
+					CompletableFuture<byte[]> fetch = fetch(new SchemeKey(classroom, yearOfWeek(week), week, day, 40, 400));
+					fetches.add(fetch);
 					
-				} catch (InterruptedException e) {
+					CompletableFuture<String> check = fetch.thenApply(Schema.this::decode).thenApply(scheme -> {
+						// the scheme of a single day has no separators, and the lessons start at 23
+						SchemeLessons lessons = SchemeLessons.extract(
+								new SchemePixels(scheme), new int[]{-1, scheme.getWidth()}, 23, SchemeGeometry.SCHEME_BG_RGB);
+						
+						if (lessons.isFreeFor(0, minute, minMinutes))
+							emptyClassrooms.add(classroom);
+						
+						return classroom;
+					});
+					check.whenComplete((c, e) -> checked.add(check));
+				}
+			}
+			
+			for (int i = 0; i < CLASSROOMS.size(); i++) {
+				CompletableFuture<String> check = checked.take();
+				try {
+					publish(check.join());
+				} catch (CompletionException | CancellationException e) { // the classroom is left out
 					e.printStackTrace();
-				} finally {
-					schemeBufferLock.unlock();
+					publish((String) null);
 				}
-				
-				repaint();
 			}
 			
+			return null;
 		}
 		
-		private void reloadBuffer() {
-			BufferedImage currentScheme = getSchemeForWeek(shownWeekNumber());
+		@Override
+		protected void process(List<String> classrooms) {
+			if (isCancelled()) return;
 			
-			int nextWeek = weekOfDate(currentDate.plusWeeks(1));
-			int lastWeek = weekOfDate(currentDate.minusWeeks(1));
+			finished += classrooms.size();
 			
-			schemeBuffer.put(shownWeekNumber(), currentScheme);
-			schemeBuffer.put(nextWeek, getSchemeForWeek(nextWeek));
-			schemeBuffer.put(lastWeek, getSchemeForWeek(lastWeek));
+			StringBuilder message = new StringBuilder("Vänta... (")
+					.append(finished).append('/').append(CLASSROOMS.size()).append(')');
 			
-			{
-				int x = getWidth() / 5 - 2;
-				
-				//noinspection ConstantConditions
-				for (int y = 2; y < currentScheme.getHeight(); y++) {
-					if (currentScheme.getRGB(x, y) == 0xff000000) {
-						timeStartY = y;
-						break;
-					}
+			List<String> empty = getEmptyClassrooms();
+			if (!empty.isEmpty())
+				message.append("\nLediga hittills: ").append(String.join(" ", empty));
+			
+			pane.setMessage(message.toString());
+		}
+		
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				synchronized (fetches) {
+					for (CompletableFuture<byte[]> fetch : fetches) fetch.cancel(true);
 				}
+				return;
 			}
 			
-			// get the x position of the lines separating the weeks
-			daySeparators.clear();
+			// close it fancily
+			Window dialog = SwingUtilities.getWindowAncestor(pane);
+			dialog.dispatchEvent(new WindowEvent(dialog, WindowEvent.WINDOW_CLOSING));
+		}
+		
+		/** Gets the empty classrooms found so far, in the same order as <tt>CLASSROOMS</tt> */
+		List<String> getEmptyClassrooms() {
+			List<String> empty = new ArrayList<>(emptyClassrooms);
+			empty.sort(Comparator.comparingInt(CLASSROOMS::indexOf));
+			return empty;
+		}
+	}
+	
+	/** Loads the scheme of a week into the buffer, unless it's already there */
+	class LoadWeekRequest extends SchemeScheduler.Request {
+		
+		private final SchemeKey key;
+		
+		LoadWeekRequest(SchemeKey key, SchemeScheduler.Priority priority) {
+			super(priority);
+			this.key = key;
+		}
+		
+		@Override
+		Object coalesceKey() {
+			return key;
+		}
+		
+		/** The scheme isn't needed if another id is shown or the size has changed */
+		@Override
+		boolean isStale() {
+			return !key.equals(schemeKey(key.week));
+		}
+		
+		@Override
+		void run() {
+			if (schemeBuffer.contains(key)) return;
+			
+			CompletableFuture<SchemeImage> week = getSchemeForWeek(key);
+			if (!week.isDone()) showDownscaled(key);
+			if (!week.isDone()) showTodayFirst(week);
 			
-			int y = 2;
-			for (int x = 0; x < currentScheme.getWidth(); x++) {
-
-				if (currentScheme.getRGB(x, y) == 0xff000000)
-					daySeparators.add(x);
-				
+			SchemeImage scheme;
+			try {
+				scheme = week.join();
+			} catch (CompletionException | CancellationException e) { // the status shows what went wrong
+				e.printStackTrace();
+				return;
 			}
+			if (isStale()) return;
 			
-			repaint();
+			putLoadedWeek(key, scheme);
+			updateView(UnaryOperator.identity());
+		}
+		
+		/**
+		 * Puts today into the copy that is shown until the week arrives, since today is what is looked at.
+		 * It's fetched at the same time as the week, and being a fifth of it arrives first. Where a scaled
+		 * copy's days are is only approximately known, so for those the days are placed like in another
+		 * fetched week of the same size.
+		 */
+		private void showTodayFirst(CompletableFuture<SchemeImage> week) {
+			SchemeImage shown = schemeBuffer.peek(key);
+			if (shown == null || key.week != currentWeek()) return;
+			
+			SchemeGeometry geometry = shown.geometry;
+			if (shown.resampled) {
+				SchemeImage other = schemeBuffer.findOtherWeek(key);
+				if (other == null) return;
+				geometry = other.geometry;
+			}
+			
+			int today = getDayOfWeekIndex();
+			SchemeKey tileKey = SchemeTiles.tileKey(key, geometry, today);
+			if (tileKey == null) return;
+			
+			SchemeImage tile;
+			try {
+				tile = SchemeImage.of(toScreenImage(
+						getScheme(tileKey.id, tileKey.week, tileKey.day, tileKey.width, tileKey.height).join()));
+			} catch (CompletionException | CancellationException e) { // the week is still coming
+				e.printStackTrace();
+				return;
+			}
+			
+			if (week.isDone() || isStale() || shown != schemeBuffer.peek(key)) return;
+			if (!SchemeTiles.fits(tile, geometry, today)) return;
+			
+			schemeBuffer.putScaled(key, pasteTile(shown, geometry, tile, today));
+			updateView(UnaryOperator.identity());
+		}
+	}
+	
+	/**
+	 * Loads a week ahead of the shown one when nothing visible is being loaded. Nothing is loaded past
+	 * the end of the term, which is where the schemes before it in the same direction are invalid.
+	 */
+	class PrefetchRequest extends LoadWeekRequest {
+		
+		private final LocalDate from;
+		private final int direction;
+		private final int weeks;
+		
+		PrefetchRequest(LocalDate from, int direction, int weeks) {
+			super(schemeKey(weekOfDate(from.plusWeeks(direction * weeks))), SchemeScheduler.Priority.PREFETCH);
+			this.from = from;
+			this.direction = direction;
+			this.weeks = weeks;
+		}
+		
+		@Override
+		void run() {
+			// if something visible has been merged into it, it has to be loaded anyway
+			if (priority == SchemeScheduler.Priority.PREFETCH) {
+				for (int i = 1; i < weeks; i++) {
+					SchemeImage before = schemeBuffer.peek(schemeKey(weekOfDate(from.plusWeeks(direction * i))));
+					if (before != null && before.geometry.invalid) return;
+				}
+			}
+			
+			super.run();
+		}
+	}
+	
+	/**
+	 * Fetches a buffered week again, and if it has changed swaps it in with the changed lessons marked.
+	 * If the image is exactly the same as the one on disk it isn't even decoded.
+	 */
+	class RefreshRequest extends SchemeScheduler.Request {
+		
+		private final SchemeKey key;
+		
+		RefreshRequest(SchemeKey key) {
+			super(SchemeScheduler.Priority.BACKGROUND);
+			this.key = key;
+		}
+		
+		@Override
+		Object coalesceKey() {
+			return Arrays.asList(RefreshRequest.class, key);
+		}
+		
+		/** The week isn't needed if another id is shown, but it's checked in the size it was fetched in */
+		@Override
+		boolean isStale() {
+			return !key.id.equals(shownId()) || !schemeBuffer.contains(key);
+		}
+		
+		@Override
+		void run() {
+			byte[] data;
+			try {
+				data = fetch(key).join();
+			} catch (CompletionException | CancellationException e) { // tried again next time
+				e.printStackTrace();
+				return;
+			}
+			
+			byte[] before = diskCache.getStale(key);
+			diskCache.put(key, data);
+			if (Arrays.equals(before, data)) return;
+			
+			SchemeImage fresh;
+			try {
+				fresh = SchemeImage.of(toScreenImage(decode(data)));
+			} catch (CompletionException e) {
+				e.printStackTrace();
+				return;
+			}
+			
+			SchemeImage old = schemeBuffer.peek(key);
+			if (old == null || isStale()) return;
+			
+			// the files can differ without the pixels doing so, and a scaled copy always differs
+			if (!old.resampled) {
+				if (old.pixelHash() == fresh.pixelHash()) return;
+				if (!fresh.geometry.invalid) fresh = fresh.withChanges(SchemeChanges.changedBlocks(old, fresh));
+			}
+			
+			swapIn(key, fresh);
+		}
+	}
+	
+	/**
+	 * Fetches one day of a buffered week again, which is about a fifth of the week, and if it has changed
+	 * puts it into the week with the changed lessons marked. If the day doesn't fit the week the whole
+	 * week is refreshed instead, then and every time after for weeks with the same size and geometry.
+	 */
+	class RefreshDayRequest extends SchemeScheduler.Request {
+		
+		private final SchemeKey key;
+		private final int day;
+		
+		RefreshDayRequest(SchemeKey key, int day) {
+			super(SchemeScheduler.Priority.BACKGROUND);
+			this.key = key;
+			this.day = day;
+		}
+		
+		@Override
+		Object coalesceKey() {
+			return Arrays.asList(RefreshDayRequest.class, key, day);
+		}
+		
+		/** See {@link RefreshRequest#isStale()} */
+		@Override
+		boolean isStale() {
+			return !key.id.equals(shownId()) || !schemeBuffer.contains(key);
+		}
+		
+		@Override
+		void run() {
+			SchemeImage old = schemeBuffer.peek(key);
+			if (old == null || old.resampled) return; // where a scaled copy's days are is only approximately known
+			
+			SchemeKey tileKey = SchemeTiles.tileKey(key, old.geometry, day);
+			if (tileKey == null) return; // a weekend or an invalid scheme
+			
+			String geometry = key.width + "x" + key.height + ";" + old.geometry.describe();
+			if (unfitDayGeometries.contains(geometry)) {
+				scheduler.submit(new RefreshRequest(key));
+				return;
+			}
+			
+			byte[] data;
+			try {
+				data = fetch(tileKey).join();
+			} catch (CompletionException | CancellationException e) { // tried again next time
+				e.printStackTrace();
+				return;
+			}
+			
+			byte[] before = diskCache.getStale(tileKey);
+			diskCache.put(tileKey, data);
+			if (Arrays.equals(before, data)) return;
+			
+			SchemeImage tile;
+			try {
+				tile = SchemeImage.of(toScreenImage(decode(data)));
+			} catch (CompletionException e) {
+				e.printStackTrace();
+				return;
+			}
+			
+			// the week might have been packed and unpacked again meanwhile, which makes a new but equal image
+			SchemeImage current = schemeBuffer.peek(key);
+			if (current == null || current.pixelHash() != old.pixelHash() || isStale()) return;
+			if (!SchemeTiles.fits(tile, old.geometry, day)) {
+				unfitDayGeometries.add(geometry);
+				scheduler.submit(new RefreshRequest(key));
+				return;
+			}
+			if (SchemeTiles.isSame(old, tile, day)) return;
+			
+			SchemeImage fresh = pasteTile(old, tile, day);
+			fresh = fresh.withChanges(SchemeChanges.changedBlocks(old, fresh));
+			storeScheme(key, fresh);
+			swapIn(key, fresh);
+		}
+	}
+	
+	/** Loads the shown week and the weeks next to it at the current size, clearing the buffer first if <tt>clear</tt> */
+	class ReloadRequest extends SchemeScheduler.Request {
+		
+		private boolean clear;
+		
+		ReloadRequest(boolean clear) {
+			super(SchemeScheduler.Priority.VISIBLE);
+			this.clear = clear;
+		}
+		
+		@Override
+		Object coalesceKey() {
+			return ReloadRequest.class;
+		}
+		
+		@Override
+		void merge(SchemeScheduler.Request newer) {
+			super.merge(newer);
+			clear |= ((ReloadRequest) newer).clear;
+		}
+		
+		@Override
+		void run() {
+			if (shownId() == null) return;
+			if (clear) schemeBuffer.clear();
+			
+			// the loads for the old size or id aren't needed anymore
+			scheduler.cancelIf(SchemeScheduler.Request::isStale);
+			
+			pinShownWeeks();
+			scheduler.submit(new LoadWeekRequest(
+					schemeKey(shownWeekNumber()), SchemeScheduler.Priority.VISIBLE));
+			scheduler.submit(new LoadWeekRequest(
+					schemeKey(weekOfDate(shownDate().plusWeeks(1))), SchemeScheduler.Priority.NEIGHBOUR));
+			scheduler.submit(new LoadWeekRequest(
+					schemeKey(weekOfDate(shownDate().minusWeeks(1))), SchemeScheduler.Priority.NEIGHBOUR));
+			
+			updateView(UnaryOperator.identity());
 		}
 	}
 }
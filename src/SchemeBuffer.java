@@ -0,0 +1,267 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+/**
+ * The scheme images kept in memory. When the images take up more than <tt>maxBytes</tt> the least
+ * recently used ones are removed, except for the pinned ones (the shown week and its neighbours).
+ * Images that aren't pinned are packed into runs of palette indices, and unpacked when they're asked
+ * for, so that many weeks fit in a small budget. Scaled copies aren't packed, since they are only
+ * shown until the real image is put.
+ */
+class SchemeBuffer {
+	
+	/** How much the proportions of an image may change when it's scaled to another size */
+	private static final double MAX_PROPORTION_CHANGE = 0.05;
+	
+	private final long maxBytes;
+	private final boolean offHeap;
+	private final BiFunction<Integer, Integer, BufferedImage> createImage;
+	
+	/** An image in the buffer, as it is or packed */
+	private static final class Stored {
+		SchemeImage image;
+		PackedScheme packed;
+		/** If the image has too many colours to be packed */
+		boolean unpackable;
+		
+		Stored(SchemeImage image) {
+			this.image = image;
+		}
+		
+		boolean isResampled() {
+			return image != null ? image.resampled : packed.resampled;
+		}
+	}
+	
+	private final LinkedHashMap<SchemeKey, Stored> images = new LinkedHashMap<>(16, 0.75f, true);
+	private final Set<SchemeKey> pinned = new HashSet<>();
+	/** The images that are scaled copies of images in another size, shown until the real ones arrive */
+	private final Set<SchemeKey> scaled = new HashSet<>();
+	private long bytes;
+	
+	/** The futures of the images that someone is waiting for */
+	private final Map<SchemeKey, CompletableFuture<SchemeImage>> waiting = new HashMap<>();
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	/**
+	 * @param offHeap if the packed images are kept outside of the heap
+	 * @param createImage creates the images to unpack into from the width and height
+	 */
+	SchemeBuffer(long maxBytes, boolean offHeap, BiFunction<Integer, Integer, BufferedImage> createImage) {
+		this.maxBytes = maxBytes;
+		this.offHeap = offHeap;
+		this.createImage = createImage;
+	}
+	
+	/** Gets the fetched image, counting it as a hit or a miss. Scaled images count as missing */
+	synchronized SchemeImage get(SchemeKey key) {
+		Stored stored = scaled.contains(key) ? null : images.get(key);
+		if (stored == null) misses++;
+		else hits++;
+		
+		return unpacked(stored);
+	}
+	
+	/** Gets the image, scaled or not, without affecting the counters, for painting */
+	synchronized SchemeImage peek(SchemeKey key) {
+		return unpacked(images.get(key));
+	}
+	
+	/** Unpacks the image if it's packed, keeping it unpacked until the next image is put */
+	private SchemeImage unpacked(Stored stored) {
+		if (stored == null) return null;
+		
+		if (stored.image == null) {
+			bytes -= stored.packed.size();
+			stored.image = stored.packed.unpack(createImage);
+			stored.packed = null;
+			bytes += sizeOf(stored.image);
+		}
+		
+		return stored.image;
+	}
+	
+	/**
+	 * Gets the smallest fetched image of the same scheme as <tt>key</tt> that is bigger than it, but at most
+	 * <tt>1 / minScale</tt> times bigger and with about the same proportions. Images that are scaled
+	 * themselves aren't used, so that the scheme doesn't get blurrier every time it's scaled down.
+	 */
+	synchronized SchemeImage findBigger(SchemeKey key, double minScale) {
+		Stored best = null;
+		int bestWidth = Integer.MAX_VALUE;
+		
+		for (Map.Entry<SchemeKey, Stored> entry : images.entrySet()) {
+			SchemeKey other = entry.getKey();
+			if (scaled.contains(other) || entry.getValue().isResampled()) continue;
+			if (!other.withSize(key.width, key.height).equals(key) || other.equals(key)) continue;
+			if (other.width < key.width || other.height < key.height || other.width >= bestWidth) continue;
+			
+			double scaleX = (double) key.width / other.width;
+			double scaleY = (double) key.height / other.height;
+			if (Math.min(scaleX, scaleY) < minScale || Math.abs(scaleX - scaleY) > MAX_PROPORTION_CHANGE) continue;
+			
+			best = entry.getValue();
+			bestWidth = other.width;
+		}
+		
+		return unpacked(best);
+	}
+	
+	/** Gets the fetched image of the week closest to <tt>key</tt>'s of the same id and size, or null if there is none */
+	synchronized SchemeImage findOtherWeek(SchemeKey key) {
+		Stored best = null;
+		int bestDistance = Integer.MAX_VALUE;
+		
+		for (Map.Entry<SchemeKey, Stored> entry : images.entrySet()) {
+			SchemeKey other = entry.getKey();
+			if (scaled.contains(other) || entry.getValue().isResampled() || other.equals(key)) continue;
+			if (!other.id.equals(key.id) || other.day != key.day || other.width != key.width || other.height != key.height) continue;
+			
+			int distance = Math.abs(other.year * 53 + other.week - key.year * 53 - key.week);
+			if (distance >= bestDistance) continue;
+			
+			best = entry.getValue();
+			bestDistance = distance;
+		}
+		
+		return unpacked(best);
+	}
+	
+	/** Checks if the fetched image is in the buffer */
+	synchronized boolean contains(SchemeKey key) {
+		return images.containsKey(key) && !scaled.contains(key);
+	}
+	
+	/** Gets the keys of the fetched images in the buffer */
+	synchronized List<SchemeKey> fetchedKeys() {
+		List<SchemeKey> keys = new ArrayList<>();
+		for (SchemeKey key : images.keySet())
+			if (!scaled.contains(key)) keys.add(key);
+		
+		return keys;
+	}
+	
+	synchronized void put(SchemeKey key, SchemeImage image) {
+		scaled.remove(key);
+		store(key, image);
+	}
+	
+	/** Puts a scaled copy of another image, which is replaced when the real image is put */
+	synchronized void putScaled(SchemeKey key, SchemeImage image) {
+		scaled.add(key);
+		store(key, image);
+	}
+	
+	/**
+	 * Gets a future that completes with the image, scaled or not, when it is put in the buffer.
+	 * It's completed already if the image is in the buffer.
+	 */
+	synchronized CompletableFuture<SchemeImage> future(SchemeKey key) {
+		SchemeImage image = unpacked(images.get(key));
+		if (image != null) return CompletableFuture.completedFuture(image);
+		
+		return waiting.computeIfAbsent(key, k -> new CompletableFuture<>());
+	}
+	
+	private void store(SchemeKey key, SchemeImage image) {
+		CompletableFuture<SchemeImage> future = waiting.remove(key);
+		if (future != null) future.complete(image);
+		
+		Stored old = images.put(key, new Stored(image));
+		if (old != null) bytes -= sizeOf(old);
+		bytes += sizeOf(image);
+		
+		pack();
+		evict();
+	}
+	
+	/** Packs the images that aren't pinned or scaled, the ones that have been unpacked since the last time */
+	private void pack() {
+		for (Map.Entry<SchemeKey, Stored> entry : images.entrySet()) {
+			Stored stored = entry.getValue();
+			if (stored.image == null || stored.unpackable) continue;
+			if (pinned.contains(entry.getKey()) || scaled.contains(entry.getKey())) continue;
+			
+			PackedScheme packed = PackedScheme.pack(stored.image, offHeap);
+			if (packed == null || packed.size() >= sizeOf(stored.image)) {
+				stored.unpackable = true;
+				continue;
+			}
+			
+			bytes -= sizeOf(stored.image);
+			bytes += packed.size();
+			stored.image = null;
+			stored.packed = packed;
+		}
+	}
+	
+	/** Makes the images of <tt>keys</tt>, and only them, stay in the buffer whatever the size */
+	synchronized void pin(Collection<SchemeKey> keys) {
+		pinned.clear();
+		pinned.addAll(keys);
+		
+		evict();
+	}
+	
+	synchronized void clear() {
+		images.clear();
+		scaled.clear();
+		
+		for (CompletableFuture<SchemeImage> future : waiting.values()) future.cancel(false);
+		waiting.clear();
+		bytes = 0;
+	}
+	
+	private void evict() {
+		Iterator<Map.Entry<SchemeKey, Stored>> it = images.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<SchemeKey, Stored> eldest = it.next();
+			if (pinned.contains(eldest.getKey())) continue;
+			
+			it.remove();
+			scaled.remove(eldest.getKey());
+			bytes -= sizeOf(eldest.getValue());
+			evictions++;
+		}
+	}
+	
+	private static long sizeOf(Stored stored) {
+		return stored.image != null ? sizeOf(stored.image) : stored.packed.size();
+	}
+	
+	/** Gets the number of bytes used by the pixels of <tt>scheme</tt> */
+	private static long sizeOf(SchemeImage scheme) {
+		DataBuffer data = scheme.image.getRaster().getDataBuffer();
+		return (long) data.getSize() * data.getNumBanks() * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+	}
+	
+	synchronized long getBytes() {
+		return bytes;
+	}
+	
+	synchronized long getHits() {
+		return hits;
+	}
+	
+	synchronized long getMisses() {
+		return misses;
+	}
+	
+	synchronized long getEvictions() {
+		return evictions;
+	}
+}
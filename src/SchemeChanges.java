@@ -0,0 +1,95 @@
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Finds out if a scheme that has been fetched again is different from the one that is shown,
+ * and which lessons have changed if it is.
+ */
+final class SchemeChanges {
+	
+	private SchemeChanges() {}
+	
+	/**
+	 * Hashes the colours of all pixels, so that images that look the same have the same hash whatever their
+	 * type. Use {@link SchemeImage#pixelHash()}, which only hashes each image once.
+	 */
+	static long pixelHash(SchemeImage scheme) {
+		SchemePixels pixels = new SchemePixels(scheme.image);
+		int[] row = new int[pixels.width];
+		byte[] bytes = new byte[pixels.width * 4];
+		CRC32 crc = new CRC32();
+		
+		for (int y = 0; y < pixels.height; y++) {
+			pixels.row(y, 0, pixels.width, row);
+			for (int x = 0; x < row.length; x++) {
+				bytes[x * 4] = (byte) (row[x] >> 24);
+				bytes[x * 4 + 1] = (byte) (row[x] >> 16);
+				bytes[x * 4 + 2] = (byte) (row[x] >> 8);
+				bytes[x * 4 + 3] = (byte) row[x];
+			}
+			crc.update(bytes);
+		}
+		
+		return crc.getValue() ^ (long) pixels.width << 32 ^ (long) pixels.height << 48;
+	}
+	
+	/**
+	 * Gets the lessons that differ between two schemes of the same size, as x, y, width and height. Those
+	 * are the lessons of <tt>fresh</tt> that have moved or whose text has changed, and the lessons of
+	 * <tt>old</tt> that are gone.
+	 */
+	static int[] changedBlocks(SchemeImage old, SchemeImage fresh) {
+		SchemeLessons oldLessons = old.lessons();
+		SchemeLessons freshLessons = fresh.lessons();
+		SchemePixels oldPixels = new SchemePixels(old.image);
+		SchemePixels freshPixels = new SchemePixels(fresh.image);
+		
+		int[] changed = new int[16];
+		int n = 0;
+		
+		int days = Math.max(oldLessons.dayCount(), freshLessons.dayCount());
+		for (int day = 0; day < days; day++) {
+			int[] oldBlocks = day < oldLessons.dayCount() ? oldLessons.blocks(day) : new int[0];
+			int[] freshBlocks = day < freshLessons.dayCount() ? freshLessons.blocks(day) : new int[0];
+			
+			for (int i = 0; i < freshBlocks.length; i += 4) {
+				if (contains(oldBlocks, freshBlocks, i) && samePixels(oldPixels, freshPixels, freshBlocks, i)) continue;
+				
+				if (n + 4 > changed.length) changed = Arrays.copyOf(changed, changed.length * 2);
+				System.arraycopy(freshBlocks, i, changed, n, 4);
+				n += 4;
+			}
+			
+			for (int i = 0; i < oldBlocks.length; i += 4) {
+				if (contains(freshBlocks, oldBlocks, i)) continue;
+				
+				if (n + 4 > changed.length) changed = Arrays.copyOf(changed, changed.length * 2);
+				System.arraycopy(oldBlocks, i, changed, n, 4);
+				n += 4;
+			}
+		}
+		
+		return Arrays.copyOf(changed, n);
+	}
+	
+	/** Checks if <tt>blocks</tt> has the block at <tt>i</tt> in <tt>other</tt> */
+	private static boolean contains(int[] blocks, int[] other, int i) {
+		for (int j = 0; j < blocks.length; j += 4) {
+			if (blocks[j] == other[i] && blocks[j + 1] == other[i + 1]
+					&& blocks[j + 2] == other[i + 2] && blocks[j + 3] == other[i + 3])
+				return true;
+		}
+		return false;
+	}
+	
+	private static boolean samePixels(SchemePixels a, SchemePixels b, int[] blocks, int i) {
+		int x = blocks[i], y = blocks[i + 1], width = blocks[i + 2], height = blocks[i + 3];
+		int[] rowA = new int[width];
+		int[] rowB = new int[width];
+		
+		for (int row = y; row < y + height; row++) {
+			if (!Arrays.equals(a.row(row, x, x + width, rowA), b.row(row, x, x + width, rowB))) return false;
+		}
+		return true;
+	}
+}
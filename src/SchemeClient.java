@@ -0,0 +1,200 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches schemes over one shared <tt>HttpClient</tt>, so connections are kept alive and reused.
+ * Failed fetches are tried again after a delay that doubles each time, up to <tt>retries</tt> times.
+ * At most <tt>maxFetches</tt> requests are sent at a time, the others wait in line without a thread.
+ * Nothing here blocks or shows dialogs, failures are only reported to the listener.
+ */
+class SchemeClient {
+	
+	private static final long FIRST_RETRY_DELAY = 500;
+	private static final long MAX_RETRY_DELAY = 8000;
+	
+	/** Told when fetches start failing and when they work again */
+	interface StatusListener {
+		
+		/** @param retryIn the number of milliseconds until it's tried again, or -1 if it has given up */
+		void failed(Throwable cause, long retryIn);
+		
+		void recovered();
+	}
+	
+	private final HttpClient client;
+	private final Executor executor;
+	private final Duration timeout;
+	private final int retries;
+	private final StatusListener listener;
+	
+	/** If the last fetch failed, so that the listener is told when one works again */
+	private final AtomicBoolean failing = new AtomicBoolean();
+	
+	/** A permit for every request that may be sent, held until it has been answered, failed or cancelled */
+	private final Semaphore sending;
+	/** The attempts waiting for a permit */
+	private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * @param executor runs the fetches and what is done with the results
+	 * @param maxFetches the number of requests that may be sent at the same time
+	 * @param timeout the number of milliseconds to wait for connecting and for the response
+	 * @param retries the number of times a failed fetch is tried again
+	 */
+	SchemeClient(Executor executor, int maxFetches, int timeout, int retries, StatusListener listener) {
+		this.executor = executor;
+		this.sending = new Semaphore(Math.max(1, maxFetches));
+		this.timeout = Duration.ofMillis(timeout);
+		this.retries = retries;
+		this.listener = listener;
+		
+		client = HttpClient.newBuilder()
+				.executor(executor)
+				.connectTimeout(this.timeout)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.build();
+	}
+	
+	/**
+	 * Fetches <tt>url</tt>, trying again if it fails. Cancelling the future aborts the fetch.
+	 *
+	 * @return a future completed with the body, or with the last failure when it has given up
+	 */
+	CompletableFuture<byte[]> fetch(String url) {
+		CompletableFuture<byte[]> result = new CompletableFuture<>();
+		
+		HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder(URI.create(url))
+					.timeout(timeout)
+					.header("Accept-Encoding", "gzip")
+					.GET()
+					.build();
+		} catch (IllegalArgumentException e) {
+			result.completeExceptionally(e);
+			return result;
+		}
+		
+		attempt(request, 0, result);
+		return result;
+	}
+	
+	/** Sends the request when there is a permit for it */
+	private void attempt(HttpRequest request, int attempt, CompletableFuture<byte[]> result) {
+		waiting.add(() -> send(request, attempt, result));
+		sendWaiting();
+	}
+	
+	/** Sends the waiting attempts there are permits for, called when one is added and when a permit is released */
+	private void sendWaiting() {
+		while (!waiting.isEmpty() && sending.tryAcquire()) {
+			Runnable attempt = waiting.poll();
+			if (attempt == null) sending.release(); // taken by another thread, which checks again
+			else attempt.run();
+		}
+	}
+	
+	private void send(HttpRequest request, int attempt, CompletableFuture<byte[]> result) {
+		if (result.isDone()) { // cancelled while waiting, the permit goes to the next one
+			sending.release();
+			return;
+		}
+		
+		CompletableFuture<HttpResponse<byte[]>> sent;
+		try {
+			sent = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+		} catch (RuntimeException e) {
+			sending.release();
+			result.completeExceptionally(e);
+			return;
+		}
+		
+		result.whenComplete((body, e) -> {
+			if (result.isCancelled()) sent.cancel(true);
+		});
+		
+		sent.whenComplete((response, e) -> {
+			sending.release();
+			sendWaiting();
+			handle(request, attempt, result, response, e);
+		});
+	}
+	
+	private void handle(HttpRequest request, int attempt, CompletableFuture<byte[]> result,
+	                    HttpResponse<byte[]> response, Throwable error) {
+		if (result.isCancelled()) return;
+		
+		if (error == null) {
+			try {
+				byte[] body = body(response);
+				if (failing.compareAndSet(true, false)) listener.recovered();
+				result.complete(body);
+				return;
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		
+		if (error instanceof CompletionException && error.getCause() != null) error = error.getCause();
+		failing.set(true);
+		
+		if (attempt < retries && isRetryable(error)) {
+			long delay = Math.min(MAX_RETRY_DELAY, FIRST_RETRY_DELAY << attempt);
+			listener.failed(error, delay);
+			
+			CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor)
+					.execute(() -> attempt(request, attempt + 1, result));
+		} else {
+			listener.failed(error, -1);
+			result.completeExceptionally(error);
+		}
+	}
+	
+	/** Gets the body of a successful response, unpacking it if it's compressed */
+	private static byte[] body(HttpResponse<byte[]> response) throws IOException {
+		if (response.statusCode() != 200)
+			throw new HttpStatusException(response.statusCode(), response.uri());
+		
+		if (!response.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip"))
+			return response.body();
+		
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+			return in.readAllBytes();
+		}
+	}
+	
+	/** Network errors and server errors might go away, other answers from the server won't */
+	private static boolean isRetryable(Throwable error) {
+		if (error instanceof HttpStatusException)
+			return ((HttpStatusException) error).status >= 500;
+		
+		return error instanceof IOException;
+	}
+	
+	/** Thrown when the server answers with something else than 200 OK */
+	static class HttpStatusException extends IOException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		final int status;
+		
+		HttpStatusException(int status, URI uri) {
+			super("HTTP " + status + ": " + uri);
+			this.status = status;
+		}
+	}
+}
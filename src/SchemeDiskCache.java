@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps fetched scheme images on disk between runs. Entries are keyed by their
+ * {@link SchemeKey}, older than <tt>maxAge</tt> counts as missing and the
+ * least recently used ones are removed when the total size goes above <tt>maxBytes</tt>.
+ */
+class SchemeDiskCache {
+	
+	private static final String SUFFIX = ".png";
+	
+	private final Path dir;
+	private final long maxBytes;
+	private final long maxAge;
+	
+	/** The file names in the cache and their sizes, least recently used first */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private long totalBytes;
+	
+	/**
+	 * @param dir the directory to keep the images in, created if it doesn't exist
+	 * @param maxBytes the maximum total size of the images
+	 * @param maxAge the number of milliseconds an image is used before it's fetched again
+	 */
+	SchemeDiskCache(Path dir, long maxBytes, long maxAge) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.maxAge = maxAge;
+		
+		try {
+			Files.createDirectories(dir);
+			loadEntries();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Reads the files already in the cache, ordered by when they were last used */
+	private void loadEntries() throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path file : stream) {
+				if (file.getFileName().toString().endsWith(SUFFIX))
+					files.add(file);
+				else
+					Files.deleteIfExists(file); // an unfinished write
+			}
+		}
+		
+		List<BasicFileAttributes> attributes = new ArrayList<>();
+		for (Path file : files)
+			attributes.add(Files.readAttributes(file, BasicFileAttributes.class));
+		
+		Integer[] order = new Integer[files.size()];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) ->
+				attributes.get(a).lastAccessTime().compareTo(attributes.get(b).lastAccessTime()));
+		
+		synchronized (this) {
+			for (int i : order) {
+				long size = attributes.get(i).size();
+				entries.put(files.get(i).getFileName().toString(), size);
+				totalBytes += size;
+			}
+			evict();
+		}
+	}
+	
+	/** Gets the cached image data, or null if it isn't cached or is too old */
+	byte[] get(SchemeKey key) {
+		return get(key, maxAge);
+	}
+	
+	/** Gets the cached image data if it's at most <tt>maxAge</tt> milliseconds old, or null */
+	byte[] getNewerThan(SchemeKey key, long maxAge) {
+		return get(key, Math.min(maxAge, this.maxAge));
+	}
+	
+	/** Gets the cached image data however old it is, or null if it isn't cached */
+	byte[] getStale(SchemeKey key) {
+		return get(key, Long.MAX_VALUE);
+	}
+	
+	private byte[] get(SchemeKey key, long maxAge) {
+		String name = fileName(key);
+		synchronized (this) {
+			if (entries.get(name) == null) return null;
+		}
+		
+		Path file = dir.resolve(name);
+		try {
+			long age = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis();
+			if (age > maxAge) {
+				if (age > this.maxAge) remove(name);
+				return null;
+			}
+			
+			return Files.readAllBytes(file);
+		} catch (IOException e) {
+			remove(name);
+			return null;
+		}
+	}
+	
+	/** Stores the image data, replacing the file atomically so that a crash never leaves half an image */
+	void put(SchemeKey key, byte[] data) {
+		String name = fileName(key);
+		
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(dir, "scheme", ".part");
+			Files.write(temp, data);
+			
+			try {
+				Files.move(temp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e1) {
+					e1.printStackTrace();
+				}
+			}
+			return;
+		}
+		
+		synchronized (this) {
+			Long old = entries.put(name, (long) data.length);
+			if (old != null) totalBytes -= old;
+			totalBytes += data.length;
+			evict();
+		}
+	}
+	
+	/** Removes all images of <tt>id</tt>, so that they are fetched again */
+	void invalidate(String id) {
+		String prefix = encode(id) + "_";
+		
+		List<String> removed = new ArrayList<>();
+		synchronized (this) {
+			for (String name : entries.keySet())
+				if (name.startsWith(prefix)) removed.add(name);
+		}
+		
+		for (String name : removed) remove(name);
+	}
+	
+	private void remove(String name) {
+		synchronized (this) {
+			Long size = entries.remove(name);
+			if (size != null) totalBytes -= size;
+		}
+		
+		delete(name);
+	}
+	
+	/** Removes the least recently used images until the cache fits in <tt>maxBytes</tt> */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			it.remove();
+			totalBytes -= eldest.getValue();
+			delete(eldest.getKey());
+		}
+	}
+	
+	private void delete(String name) {
+		try {
+			Files.deleteIfExists(dir.resolve(name));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static String fileName(SchemeKey key) {
+		return encode(key.id) + "_" + key.year + "_" + key.week + "_" + key.day + "_" + key.width + "x" + key.height + SUFFIX;
+	}
+	
+	private static String encode(String id) {
+		try {
+			return URLEncoder.encode(id, "UTF-8").replace("_", "%5F");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
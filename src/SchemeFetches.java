@@ -0,0 +1,85 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Makes fetches of a scheme that is already being fetched wait for that download instead of starting
+ * another. Every caller gets its own future, so one of them cancelling doesn't affect the others, and
+ * the download is only aborted when all of them have cancelled.
+ */
+class SchemeFetches {
+	
+	private final Function<SchemeKey, CompletableFuture<byte[]>> downloader;
+	
+	/** The downloads that are running */
+	private final Map<SchemeKey, Download> downloads = new HashMap<>();
+	
+	private long shared;
+	
+	/** @param downloader starts a download, which cancelling its future aborts */
+	SchemeFetches(Function<SchemeKey, CompletableFuture<byte[]>> downloader) {
+		this.downloader = downloader;
+	}
+	
+	private static class Download {
+		
+		final CompletableFuture<byte[]> future;
+		/** The number of callers that haven't cancelled */
+		int waiting;
+		
+		Download(CompletableFuture<byte[]> future) {
+			this.future = future;
+		}
+	}
+	
+	/** Fetches <tt>key</tt>, sharing the download if it's already being fetched. Cancelling the future only stops this caller waiting */
+	CompletableFuture<byte[]> fetch(SchemeKey key) {
+		Download download;
+		synchronized (this) {
+			download = downloads.get(key);
+			if (download == null) {
+				download = new Download(downloader.apply(key));
+				downloads.put(key, download);
+				
+				Download started = download;
+				download.future.whenComplete((data, e) -> finished(key, started));
+			} else {
+				shared++;
+			}
+			download.waiting++;
+		}
+		
+		CompletableFuture<byte[]> result = new CompletableFuture<>();
+		download.future.whenComplete((data, e) -> {
+			if (e == null) result.complete(data);
+			else result.completeExceptionally(e);
+		});
+		
+		Download waitedFor = download;
+		result.whenComplete((data, e) -> {
+			if (result.isCancelled()) cancelled(key, waitedFor);
+		});
+		
+		return result;
+	}
+	
+	private synchronized void finished(SchemeKey key, Download download) {
+		downloads.remove(key, download);
+	}
+	
+	/** Aborts the download when nobody is waiting for it anymore */
+	private void cancelled(SchemeKey key, Download download) {
+		synchronized (this) {
+			if (--download.waiting > 0) return;
+			downloads.remove(key, download);
+		}
+		
+		download.future.cancel(true);
+	}
+	
+	/** Gets the number of fetches that have waited for a download that was already running */
+	synchronized long getShared() {
+		return shared;
+	}
+}
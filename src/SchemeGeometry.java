@@ -0,0 +1,210 @@
+import java.util.Arrays;
+
+/**
+ * Where things are in a scheme image, found once when the image arrives so that painting
+ * doesn't have to look at the pixels.
+ */
+final class SchemeGeometry {
+	
+	/** The number of seconds from 8:00 to 17:00 */
+	static final int SCHEME_LENGTH = 32400;
+	
+	/** The colour of the parts of the scheme where nothing is scheduled */
+	static final int SCHEME_BG_RGB = 0xffc0c0c0;
+	private static final int LINE_RGB = 0xff000000;
+	private static final int[] NO_SEGMENTS = new int[0];
+	
+	final int width;
+	final int height;
+	
+	/** The x positions of the black lines separating the days */
+	final int[] separators;
+	
+	/** The y position where the date label ends and the scheduled lessons begin */
+	final int timeStartY;
+	
+	/** The most common colour below the date labels, which is what the empty parts of the scheme look like */
+	final int backgroundRGB;
+	
+	/** If the id doesn't exist, in which case the scheme is just an error message */
+	final boolean invalid;
+	
+	private final SchemePixels pixels;
+	
+	/** The last now line segments, which only change when the time moves a pixel */
+	private int segmentsDay = -1, segmentsY = -1;
+	private int[] segments;
+	
+	private SchemeGeometry(SchemePixels pixels, int[] separators, int timeStartY, int backgroundRGB, boolean invalid) {
+		this.pixels = pixels;
+		this.width = pixels.width;
+		this.height = pixels.height;
+		this.separators = separators;
+		this.timeStartY = timeStartY;
+		this.backgroundRGB = backgroundRGB;
+		this.invalid = invalid;
+	}
+	
+	static SchemeGeometry analyze(SchemePixels pixels) {
+		if (isInvalid(pixels))
+			return new SchemeGeometry(pixels, new int[0], 0, SCHEME_BG_RGB, true);
+		
+		int width = pixels.width;
+		int height = pixels.height;
+		
+		int timeStartY = 0;
+		int x = width / 5 - 2;
+		if (x >= 0) {
+			for (int y = 2; y < height; y++) {
+				if (pixels.rgb(x, y) == LINE_RGB) {
+					timeStartY = y;
+					break;
+				}
+			}
+		}
+		
+		// get the x position of the lines separating the days
+		int[] row = pixels.row(Math.min(2, height - 1), 0, width, new int[width]);
+		int[] separators = new int[8];
+		int count = 0;
+		for (x = 0; x < width; x++) {
+			if (row[x] == LINE_RGB) {
+				if (count == separators.length) separators = Arrays.copyOf(separators, count * 2);
+				separators[count++] = x;
+			}
+		}
+		separators = Arrays.copyOf(separators, count);
+		
+		return new SchemeGeometry(pixels, separators, timeStartY, backgroundOf(pixels, timeStartY, row), false);
+	}
+	
+	/** Gets the most common colour of the scheme below <tt>timeStartY</tt>, looking at every fourth row */
+	private static int backgroundOf(SchemePixels pixels, int timeStartY, int[] row) {
+		int[] colours = new int[16];
+		int[] counts = new int[16];
+		int distinct = 0;
+		
+		for (int y = timeStartY + 1; y < pixels.height; y += 4) {
+			pixels.row(y, 0, pixels.width, row);
+			
+			for (int x = 0; x < pixels.width; x++) {
+				int i = 0;
+				while (i < distinct && colours[i] != row[x]) i++;
+				
+				if (i == distinct) {
+					if (distinct == colours.length) continue; // too many colours to be background anyway
+					colours[distinct++] = row[x];
+				}
+				counts[i]++;
+			}
+		}
+		
+		int best = 0;
+		for (int i = 1; i < distinct; i++)
+			if (counts[i] > counts[best]) best = i;
+		
+		return distinct == 0 ? SCHEME_BG_RGB : colours[best];
+	}
+	
+	/** Gets the geometry of <tt>pixels</tt>, being a scaled copy of the image this geometry is of */
+	SchemeGeometry scaled(SchemePixels pixels) {
+		int[] scaledSeparators = new int[separators.length];
+		for (int i = 0; i < separators.length; i++)
+			scaledSeparators[i] = separators[i] * pixels.width / width;
+		
+		return new SchemeGeometry(pixels, scaledSeparators, timeStartY * pixels.height / height, backgroundRGB, invalid);
+	}
+	
+	/** Describes the geometry as text, so that it can be restored without analyzing the image again */
+	String describe() {
+		StringBuilder b = new StringBuilder()
+				.append(timeStartY).append(';')
+				.append(Integer.toHexString(backgroundRGB)).append(';');
+		
+		for (int i = 0; i < separators.length; i++) {
+			if (i > 0) b.append(',');
+			b.append(separators[i]);
+		}
+		
+		return b.toString();
+	}
+	
+	/**
+	 * Restores the geometry of <tt>pixels</tt> from a description made by {@link #describe()}
+	 *
+	 * @return the geometry, or null if the description doesn't fit the image
+	 */
+	static SchemeGeometry restore(SchemePixels pixels, String description) {
+		String[] parts = description.split(";", -1);
+		if (parts.length != 3) return null;
+		
+		try {
+			int timeStartY = Integer.parseInt(parts[0]);
+			int backgroundRGB = Integer.parseUnsignedInt(parts[1], 16);
+			
+			String[] separatorParts = parts[2].isEmpty() ? new String[0] : parts[2].split(",");
+			int[] separators = new int[separatorParts.length];
+			for (int i = 0; i < separators.length; i++) {
+				separators[i] = Integer.parseInt(separatorParts[i]);
+				if (separators[i] < 0 || separators[i] >= pixels.width) return null;
+			}
+			
+			if (timeStartY < 0 || timeStartY >= pixels.height) return null;
+			return new SchemeGeometry(pixels, separators, timeStartY, backgroundRGB, false);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	/** Checks if the scheme is an error message instead of a scheme */
+	static boolean isInvalid(SchemePixels pixels) {
+		return pixels.height > 1 && (pixels.rgb(0, 0) ^ pixels.rgb(0, 1)) == 0x00ffffcc;
+	}
+	
+	/** Gets the number of days separated by <tt>separators</tt> */
+	int dayCount() {
+		return Math.max(0, separators.length - 1);
+	}
+	
+	/**
+	 * Gets where the now line is drawn in day <tt>day</tt> at <tt>y</tt>, as pairs of start (inclusive)
+	 * and end (exclusive) x positions. It's drawn where the colour is the same as at the start of the day
+	 * or the scheme background, so it doesn't cross lessons that don't start at the start of the day.
+	 */
+	synchronized int[] lineSegments(int day, int y) {
+		if (day == segmentsDay && y == segmentsY) return segments;
+		
+		int[] res = NO_SEGMENTS;
+		if (day < dayCount() && y >= 0 && y < height) {
+			int x0 = separators[day] + 1;
+			int x1 = separators[day + 1];
+			
+			if (x0 < x1) {
+				int[] row = pixels.row(y, x0, x1, new int[x1 - x0]);
+				int bgRGB = row[0];
+				
+				res = new int[8];
+				int count = 0;
+				int start = -1;
+				for (int x = x0; x <= x1; x++) {
+					boolean draw = x < x1 && (row[x - x0] == bgRGB || row[x - x0] == SCHEME_BG_RGB);
+					
+					if (draw && start < 0) {
+						start = x;
+					} else if (!draw && start >= 0) {
+						if (count == res.length) res = Arrays.copyOf(res, count * 2);
+						res[count++] = start;
+						res[count++] = x;
+						start = -1;
+					}
+				}
+				res = Arrays.copyOf(res, count);
+			}
+		}
+		
+		segmentsDay = day;
+		segmentsY = y;
+		segments = res;
+		return res;
+	}
+}
@@ -0,0 +1,67 @@
+import java.awt.image.BufferedImage;
+
+/** A scheme image together with its geometry */
+final class SchemeImage {
+	
+	final BufferedImage image;
+	final SchemeGeometry geometry;
+	/** If the image is a scaled copy of a fetched one */
+	final boolean resampled;
+	/** The lessons that changed when the scheme was fetched again, as x, y, width and height, or null */
+	final int[] changes;
+	
+	private SchemeLessons lessons;
+	private Long pixelHash;
+	
+	SchemeImage(BufferedImage image, SchemeGeometry geometry) {
+		this(image, geometry, false, null);
+	}
+	
+	SchemeImage(BufferedImage image, SchemeGeometry geometry, boolean resampled, int[] changes) {
+		this.image = image;
+		this.geometry = geometry;
+		this.resampled = resampled;
+		this.changes = changes;
+	}
+	
+	/** Analyzes the geometry of a fetched image */
+	static SchemeImage of(BufferedImage image) {
+		return new SchemeImage(image, SchemeGeometry.analyze(new SchemePixels(image)));
+	}
+	
+	/** Gets the lessons in the scheme, extracted the first time they're needed */
+	synchronized SchemeLessons lessons() {
+		if (lessons == null) lessons = SchemeLessons.extract(this);
+		return lessons;
+	}
+	
+	/** Gets the hash of the pixels, computed the first time it's needed */
+	synchronized long pixelHash() {
+		if (pixelHash == null) pixelHash = SchemeChanges.pixelHash(this);
+		return pixelHash;
+	}
+	
+	/** Makes a copy of this scheme with the lessons that have changed marked */
+	SchemeImage withChanges(int[] changes) {
+		return new SchemeImage(image, geometry, resampled, changes);
+	}
+	
+	/** Makes a scaled copy of this scheme, with the geometry and the changed lessons scaled instead of analyzed again */
+	SchemeImage scaled(BufferedImage scaledImage) {
+		int[] scaledChanges = null;
+		if (changes != null) {
+			int width = image.getWidth(), height = image.getHeight();
+			int newWidth = scaledImage.getWidth(), newHeight = scaledImage.getHeight();
+			
+			scaledChanges = new int[changes.length];
+			for (int i = 0; i < changes.length; i += 4) {
+				scaledChanges[i] = changes[i] * newWidth / width;
+				scaledChanges[i + 1] = changes[i + 1] * newHeight / height;
+				scaledChanges[i + 2] = Math.max(1, changes[i + 2] * newWidth / width);
+				scaledChanges[i + 3] = Math.max(1, changes[i + 3] * newHeight / height);
+			}
+		}
+		
+		return new SchemeImage(scaledImage, geometry.scaled(new SchemePixels(scaledImage)), true, scaledChanges);
+	}
+}
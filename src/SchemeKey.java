@@ -0,0 +1,52 @@
+import java.util.Objects;
+
+/** Identifies one scheme image, the same way as the parameters of the schedule generator */
+final class SchemeKey {
+	
+	final String id;
+	/** The week based year, since the week number alone is the same every year */
+	final int year;
+	final int week;
+	/** The day parameter, 0 for the whole week */
+	final int day;
+	final int width;
+	final int height;
+	
+	SchemeKey(String id, int year, int week, int day, int width, int height) {
+		this.id = id;
+		this.year = year;
+		this.week = week;
+		this.day = day;
+		this.width = width;
+		this.height = height;
+	}
+	
+	/** Gets the key of the same scheme in another size */
+	SchemeKey withSize(int width, int height) {
+		return new SchemeKey(id, year, week, day, width, height);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof SchemeKey)) return false;
+		
+		SchemeKey key = (SchemeKey) o;
+		return year == key.year
+				&& week == key.week
+				&& day == key.day
+				&& width == key.width
+				&& height == key.height
+				&& id.equals(key.id);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, year, week, day, width, height);
+	}
+	
+	@Override
+	public String toString() {
+		return id + " " + year + "-" + week + " day " + day + " " + width + "x" + height;
+	}
+}
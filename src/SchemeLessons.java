@@ -0,0 +1,230 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The lessons in a scheme, as the times each day is occupied. They are found by looking for
+ * connected blocks of pixels that aren't background in each day column, each day in parallel.
+ * Times are in minutes from 8:00, the start of the scheme.
+ */
+final class SchemeLessons {
+	
+	/** The number of minutes from 8:00 to 17:00 */
+	static final int DAY_MINUTES = SchemeGeometry.SCHEME_LENGTH / 60;
+	
+	/** Blocks smaller than this in either direction are lines or noise, not lessons */
+	private static final int MIN_BLOCK_SIZE = 3;
+	
+	/** For each day, the occupied intervals as pairs of start (inclusive) and end (exclusive) minutes */
+	private final int[][] intervals;
+	
+	/** For each day, the lesson blocks as x, y, width and height in the image */
+	private final int[][] blocks;
+	
+	private SchemeLessons(int[][] intervals, int[][] blocks) {
+		this.intervals = intervals;
+		this.blocks = blocks;
+	}
+	
+	/** Extracts the lessons of each day between the separators of <tt>scheme</tt> */
+	static SchemeLessons extract(SchemeImage scheme) {
+		SchemeGeometry geometry = scheme.geometry;
+		return extract(new SchemePixels(scheme.image), geometry.separators, geometry.timeStartY, geometry.backgroundRGB);
+	}
+	
+	/**
+	 * Extracts the lessons of the days between <tt>separators</tt>. A scheme of a single day without
+	 * separators can be given <tt>{-1, width}</tt> as separators.
+	 */
+	static SchemeLessons extract(SchemePixels pixels, int[] separators, int timeStartY, int backgroundRGB) {
+		int days = Math.max(0, separators.length - 1);
+		
+		int[][][] res = IntStream.range(0, days)
+				.parallel()
+				.mapToObj(day -> extractDay(
+						pixels,
+						separators[day] + 1, separators[day + 1],
+						timeStartY, backgroundRGB))
+				.toArray(int[][][]::new);
+		
+		int[][] intervals = new int[days][];
+		int[][] blocks = new int[days][];
+		for (int day = 0; day < days; day++) {
+			intervals[day] = res[day][0];
+			blocks[day] = res[day][1];
+		}
+		
+		return new SchemeLessons(intervals, blocks);
+	}
+	
+	/**
+	 * Finds the blocks in the column from <tt>x0</tt> (inclusive) to <tt>x1</tt> (exclusive) by labelling
+	 * the connected pixels that aren't background, row by row with a union-find.
+	 *
+	 * @return the occupied intervals and the blocks
+	 */
+	private static int[][] extractDay(SchemePixels pixels, int x0, int x1, int timeStartY, int backgroundRGB) {
+		int width = x1 - x0;
+		int y0 = timeStartY + 1;
+		int height = pixels.height - y0;
+		if (width <= 0 || height <= 0) return new int[][]{new int[0], new int[0]};
+		
+		boolean[] occupied = new boolean[width * height];
+		int[] lineCounts = new int[width];
+		int[] row = new int[width];
+		
+		for (int y = 0; y < height; y++) {
+			pixels.row(y + y0, x0, x1, row);
+			for (int x = 0; x < width; x++) {
+				int rgb = row[x];
+				if (rgb != SchemeGeometry.SCHEME_BG_RGB && rgb != backgroundRGB) {
+					occupied[y * width + x] = true;
+					lineCounts[x]++;
+				}
+			}
+		}
+		
+		// columns that are occupied almost all the way down are borders, which would join all blocks together
+		for (int x = 0; x < width; x++) {
+			if (lineCounts[x] * 10 >= height * 9) {
+				for (int y = 0; y < height; y++) occupied[y * width + x] = false;
+			}
+		}
+		
+		int[] parent = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x;
+				if (!occupied[i]) continue;
+				
+				parent[i] = i;
+				if (x > 0 && occupied[i - 1]) union(parent, i, i - 1);
+				if (y > 0 && occupied[i - width]) union(parent, i, i - width);
+			}
+		}
+		
+		// the bounds of each component, stored at its root
+		int[] minX = new int[width * height];
+		int[] maxX = new int[width * height];
+		int[] minY = new int[width * height];
+		int[] maxY = new int[width * height];
+		int[] roots = new int[16];
+		int rootCount = 0;
+		
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x;
+				if (!occupied[i]) continue;
+				
+				int root = find(parent, i);
+				if (root == i) {
+					if (rootCount == roots.length) roots = Arrays.copyOf(roots, rootCount * 2);
+					roots[rootCount++] = root;
+					minX[root] = maxX[root] = x;
+					minY[root] = maxY[root] = y;
+				} else {
+					minX[root] = Math.min(minX[root], x);
+					maxX[root] = Math.max(maxX[root], x);
+					maxY[root] = y;
+				}
+			}
+		}
+		
+		int[] blocks = new int[rootCount * 4];
+		int[] intervals = new int[rootCount * 2];
+		int blockCount = 0;
+		
+		for (int r = 0; r < rootCount; r++) {
+			int root = roots[r];
+			int blockWidth = maxX[root] - minX[root] + 1;
+			int blockHeight = maxY[root] - minY[root] + 1;
+			if (blockWidth < MIN_BLOCK_SIZE || blockHeight < MIN_BLOCK_SIZE) continue;
+			
+			blocks[blockCount * 4] = minX[root] + x0;
+			blocks[blockCount * 4 + 1] = minY[root] + y0;
+			blocks[blockCount * 4 + 2] = blockWidth;
+			blocks[blockCount * 4 + 3] = blockHeight;
+			
+			intervals[blockCount * 2] = minuteOfY(minY[root] + y0, pixels.height, timeStartY, false);
+			intervals[blockCount * 2 + 1] = minuteOfY(maxY[root] + y0 + 1, pixels.height, timeStartY, true);
+			blockCount++;
+		}
+		
+		return new int[][]{merge(intervals, blockCount), Arrays.copyOf(blocks, blockCount * 4)};
+	}
+	
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+	
+	/** Joins the components, keeping the smallest index as root so roots are found before the rest */
+	private static void union(int[] parent, int a, int b) {
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a < b) parent[b] = a;
+		else if (b < a) parent[a] = b;
+	}
+	
+	/** Gets the minute of y position <tt>y</tt>, the inverse of the scheme relative y of a time */
+	private static int minuteOfY(int y, int height, int timeStartY, boolean roundUp) {
+		int scale = height - timeStartY - 1;
+		if (scale <= 0) return 0;
+		
+		long seconds = (long) (y - timeStartY) * SchemeGeometry.SCHEME_LENGTH;
+		int minute = (int) (roundUp ? (seconds + scale * 60L - 1) / (scale * 60L) : seconds / (scale * 60L));
+		return Math.max(0, Math.min(DAY_MINUTES, minute));
+	}
+	
+	/** Sorts the intervals and merges the overlapping ones */
+	private static int[] merge(int[] intervals, int count) {
+		long[] sorted = new long[count];
+		for (int i = 0; i < count; i++)
+			sorted[i] = (long) intervals[i * 2] << 32 | intervals[i * 2 + 1];
+		Arrays.sort(sorted);
+		
+		int[] res = new int[count * 2];
+		int n = 0;
+		for (long interval : sorted) {
+			int start = (int) (interval >>> 32);
+			int end = (int) interval;
+			
+			if (n > 0 && start <= res[n - 1]) {
+				res[n - 1] = Math.max(res[n - 1], end);
+			} else {
+				res[n++] = start;
+				res[n++] = end;
+			}
+		}
+		
+		return Arrays.copyOf(res, n);
+	}
+	
+	int dayCount() {
+		return intervals.length;
+	}
+	
+	/** Gets the occupied intervals of <tt>day</tt> as pairs of start (inclusive) and end (exclusive) minutes */
+	int[] intervals(int day) {
+		return intervals[day];
+	}
+	
+	/** Gets the lesson blocks of <tt>day</tt> as x, y, width and height in the image */
+	int[] blocks(int day) {
+		return blocks[day];
+	}
+	
+	/** Checks if nothing is scheduled for <tt>minutes</tt> minutes from <tt>minute</tt> on <tt>day</tt> */
+	boolean isFreeFor(int day, int minute, int minutes) {
+		int end = minute + Math.max(1, minutes);
+		
+		int[] dayIntervals = intervals[day];
+		for (int i = 0; i < dayIntervals.length; i += 2) {
+			if (end <= dayIntervals[i]) return true;
+			if (minute < dayIntervals[i + 1]) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,382 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Counts where the time goes: fetching, decoding, waiting in the scheduler queue and painting, and how
+ * often the buffer has the scheme. The counters are read through JMX and the debug overlay, and the
+ * same things are recorded as JFR events when a recording is running.
+ */
+class SchemeMetrics implements SchemeMetricsMXBean {
+	
+	/** What kind of id a scheme is of, since they take different time for the server to make */
+	enum IdType {
+		ROOM, CLASS, TEACHER, OTHER;
+		
+		private static final Pattern ROOM_PATTERN = Pattern.compile("[A-Z]\\d{3}\\w*");
+		private static final Pattern CLASS_PATTERN = Pattern.compile("[A-Za-z]{2}\\d{2}\\w*");
+		private static final Pattern TEACHER_PATTERN = Pattern.compile("\\p{L}+");
+		
+		static IdType of(String id) {
+			if (ROOM_PATTERN.matcher(id).matches()) return ROOM;
+			if (CLASS_PATTERN.matcher(id).matches()) return CLASS;
+			if (TEACHER_PATTERN.matcher(id).matches()) return TEACHER;
+			return OTHER;
+		}
+	}
+	
+	/** A count with the total and longest time */
+	static final class Timing {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		
+		void record(long nanos) {
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+		}
+		
+		long count() {
+			return count.sum();
+		}
+		
+		double meanMillis() {
+			long n = count.sum();
+			return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+		}
+		
+		double maxMillis() {
+			return maxNanos.get() / 1e6;
+		}
+		
+		void reset() {
+			count.reset();
+			totalNanos.reset();
+			maxNanos.reset();
+		}
+	}
+	
+	@Name("schema.Fetch")
+	@Label("Scheme Fetch")
+	@Category("Schema")
+	static class FetchEvent extends Event {
+		@Label("Id")
+		String id;
+		@Label("Id Type")
+		String idType;
+		@Label("Week")
+		int week;
+		@Label("Width")
+		int width;
+		@Label("Height")
+		int height;
+		@Label("Succeeded")
+		boolean succeeded;
+	}
+	
+	@Name("schema.Decode")
+	@Label("Scheme Decode")
+	@Category("Schema")
+	static class DecodeEvent extends Event {
+		@Label("Bytes")
+		int bytes;
+	}
+	
+	@Name("schema.QueueWait")
+	@Label("Scheduler Queue Wait")
+	@Category("Schema")
+	static class QueueWaitEvent extends Event {
+		@Label("Request")
+		String request;
+		@Label("Priority")
+		String priority;
+		@Label("Queue Depth")
+		int queueDepth;
+	}
+	
+	@Name("schema.Paint")
+	@Label("Scheme Paint")
+	@Category("Schema")
+	static class PaintEvent extends Event {
+		@Label("Width")
+		int width;
+		@Label("Height")
+		int height;
+	}
+	
+	@Name("schema.FirstPaint")
+	@Label("First Scheme Paint")
+	@Category("Schema")
+	static class FirstPaintEvent extends Event {
+		@Label("Since Start")
+		@Timespan(Timespan.MILLISECONDS)
+		long sinceStart;
+	}
+	
+	private final Map<IdType, Timing> fetches = new EnumMap<>(IdType.class);
+	private final LongAdder fetchFailures = new LongAdder();
+	private final LongAdder downscales = new LongAdder();
+	private final Timing decodes = new Timing();
+	private final Timing queueWaits = new Timing();
+	private final Timing paints = new Timing();
+	private volatile long firstPaintMillis = -1;
+	
+	private volatile SchemeBuffer buffer;
+	private volatile SchemeScheduler scheduler;
+	private volatile SchemeFetches sharedFetches;
+	
+	SchemeMetrics() {
+		for (IdType type : IdType.values()) fetches.put(type, new Timing());
+	}
+	
+	/** Reads the buffer, the queue of the scheduler and the shared fetches when asked for them */
+	void watch(SchemeBuffer buffer, SchemeScheduler scheduler, SchemeFetches sharedFetches) {
+		this.buffer = buffer;
+		this.scheduler = scheduler;
+		this.sharedFetches = sharedFetches;
+	}
+	
+	/** Counts a scheme that was scaled down from a bigger one to be shown while it is fetched */
+	void downscaled() {
+		downscales.increment();
+	}
+	
+	/** Starts timing a fetch, which is ended with {@link #fetched} */
+	FetchEvent fetchStarted(SchemeKey key) {
+		FetchEvent event = new FetchEvent();
+		event.begin();
+		event.id = key.id;
+		event.idType = IdType.of(key.id).name();
+		event.week = key.week;
+		event.width = key.width;
+		event.height = key.height;
+		return event;
+	}
+	
+	void fetched(FetchEvent event, long startNanos, boolean succeeded) {
+		if (succeeded) fetches.get(IdType.valueOf(event.idType)).record(System.nanoTime() - startNanos);
+		else fetchFailures.increment();
+		
+		event.succeeded = succeeded;
+		event.commit();
+	}
+	
+	DecodeEvent decodeStarted(int bytes) {
+		DecodeEvent event = new DecodeEvent();
+		event.begin();
+		event.bytes = bytes;
+		return event;
+	}
+	
+	void decoded(DecodeEvent event, long startNanos) {
+		decodes.record(System.nanoTime() - startNanos);
+		event.commit();
+	}
+	
+	/** Records that a request waited <tt>nanos</tt> ns in the queue before being run */
+	void dequeued(SchemeScheduler.Request request, long nanos, int queueDepth) {
+		queueWaits.record(nanos);
+		
+		QueueWaitEvent event = new QueueWaitEvent();
+		if (event.shouldCommit()) {
+			event.request = request.getClass().getSimpleName();
+			event.priority = request.priority.name();
+			event.queueDepth = queueDepth;
+			event.commit();
+		}
+	}
+	
+	PaintEvent paintStarted(int width, int height) {
+		PaintEvent event = new PaintEvent();
+		event.begin();
+		event.width = width;
+		event.height = height;
+		return event;
+	}
+	
+	void painted(PaintEvent event, long startNanos) {
+		paints.record(System.nanoTime() - startNanos);
+		event.commit();
+	}
+	
+	/** Records how long after <tt>startNanos</tt>, when the program started, the first scheme was painted */
+	void firstPainted(long startNanos) {
+		firstPaintMillis = (System.nanoTime() - startNanos) / 1000000;
+		
+		FirstPaintEvent event = new FirstPaintEvent();
+		event.sinceStart = firstPaintMillis;
+		event.commit();
+	}
+	
+	/** Describes the counters in a few lines, for the debug overlay */
+	List<String> describe() {
+		List<String> lines = new ArrayList<>();
+		
+		for (IdType type : IdType.values()) {
+			Timing timing = fetches.get(type);
+			if (timing.count() == 0) continue;
+			lines.add(String.format("fetch %s: %d, %.0f ms (max %.0f)",
+					type.name().toLowerCase(), timing.count(), timing.meanMillis(), timing.maxMillis()));
+		}
+		lines.add(String.format("fetch failures: %d, shared: %d, downscaled: %d",
+				getFetchFailures(), getSharedFetches(), getDownscales()));
+		lines.add(String.format("decode: %d, %.1f ms (max %.1f)", decodes.count(), decodes.meanMillis(), decodes.maxMillis()));
+		lines.add(String.format("queue: %d waiting, waited %.1f ms (max %.0f)",
+				getQueueDepth(), queueWaits.meanMillis(), queueWaits.maxMillis()));
+		lines.add(String.format("buffer: %.0f%% hits, %d evictions, %d kB",
+				getBufferHitRate() * 100, getBufferEvictions(), getBufferBytes() / 1024));
+		lines.add(String.format("paint: %d, %.2f ms (max %.1f), first after %d ms",
+				paints.count(), paints.meanMillis(), paints.maxMillis(), getFirstPaintMillis()));
+		
+		return lines;
+	}
+	
+	private Map<String, Long> byType(ToLongFunction<Timing> value) {
+		Map<String, Long> res = new LinkedHashMap<>();
+		for (IdType type : IdType.values()) res.put(type.name(), value.applyAsLong(fetches.get(type)));
+		return res;
+	}
+	
+	private Map<String, Double> byTypeMillis(ToDoubleFunction<Timing> value) {
+		Map<String, Double> res = new LinkedHashMap<>();
+		for (IdType type : IdType.values()) res.put(type.name(), value.applyAsDouble(fetches.get(type)));
+		return res;
+	}
+	
+	@Override
+	public Map<String, Long> getFetchCounts() {
+		return byType(Timing::count);
+	}
+	
+	@Override
+	public Map<String, Double> getFetchMeanMillis() {
+		return byTypeMillis(Timing::meanMillis);
+	}
+	
+	@Override
+	public Map<String, Double> getFetchMaxMillis() {
+		return byTypeMillis(Timing::maxMillis);
+	}
+	
+	@Override
+	public long getFetchFailures() {
+		return fetchFailures.sum();
+	}
+	
+	@Override
+	public long getSharedFetches() {
+		SchemeFetches sharedFetches = this.sharedFetches;
+		return sharedFetches == null ? 0 : sharedFetches.getShared();
+	}
+	
+	@Override
+	public long getDownscales() {
+		return downscales.sum();
+	}
+	
+	@Override
+	public long getDecodeCount() {
+		return decodes.count();
+	}
+	
+	@Override
+	public double getDecodeMeanMillis() {
+		return decodes.meanMillis();
+	}
+	
+	@Override
+	public int getQueueDepth() {
+		SchemeScheduler scheduler = this.scheduler;
+		return scheduler == null ? 0 : scheduler.waitingCount();
+	}
+	
+	@Override
+	public long getQueueWaitCount() {
+		return queueWaits.count();
+	}
+	
+	@Override
+	public double getQueueWaitMeanMillis() {
+		return queueWaits.meanMillis();
+	}
+	
+	@Override
+	public double getQueueWaitMaxMillis() {
+		return queueWaits.maxMillis();
+	}
+	
+	@Override
+	public long getBufferHits() {
+		SchemeBuffer buffer = this.buffer;
+		return buffer == null ? 0 : buffer.getHits();
+	}
+	
+	@Override
+	public long getBufferMisses() {
+		SchemeBuffer buffer = this.buffer;
+		return buffer == null ? 0 : buffer.getMisses();
+	}
+	
+	@Override
+	public double getBufferHitRate() {
+		long hits = getBufferHits();
+		long total = hits + getBufferMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+	
+	@Override
+	public long getBufferEvictions() {
+		SchemeBuffer buffer = this.buffer;
+		return buffer == null ? 0 : buffer.getEvictions();
+	}
+	
+	@Override
+	public long getBufferBytes() {
+		SchemeBuffer buffer = this.buffer;
+		return buffer == null ? 0 : buffer.getBytes();
+	}
+	
+	@Override
+	public long getPaintCount() {
+		return paints.count();
+	}
+	
+	@Override
+	public double getPaintMeanMillis() {
+		return paints.meanMillis();
+	}
+	
+	@Override
+	public double getPaintMaxMillis() {
+		return paints.maxMillis();
+	}
+	
+	@Override
+	public long getFirstPaintMillis() {
+		return firstPaintMillis;
+	}
+	
+	@Override
+	public void reset() {
+		for (Timing timing : fetches.values()) timing.reset();
+		fetchFailures.reset();
+		downscales.reset();
+		decodes.reset();
+		queueWaits.reset();
+		paints.reset();
+	}
+}
@@ -0,0 +1,55 @@
+import java.util.Map;
+
+/** The counters of {@link SchemeMetrics} as seen through JMX, times are in milliseconds */
+public interface SchemeMetricsMXBean {
+	
+	/** The number of schemes fetched from the internet, by the type of id */
+	Map<String, Long> getFetchCounts();
+	
+	Map<String, Double> getFetchMeanMillis();
+	
+	Map<String, Double> getFetchMaxMillis();
+	
+	long getFetchFailures();
+	
+	/** The number of fetches that waited for the same scheme being fetched instead of fetching it again */
+	long getSharedFetches();
+	
+	/** The number of schemes scaled down from a bigger fetched one to be shown while they are fetched */
+	long getDownscales();
+	
+	long getDecodeCount();
+	
+	double getDecodeMeanMillis();
+	
+	/** The number of requests waiting to be run by the scheduler */
+	int getQueueDepth();
+	
+	long getQueueWaitCount();
+	
+	double getQueueWaitMeanMillis();
+	
+	double getQueueWaitMaxMillis();
+	
+	long getBufferHits();
+	
+	long getBufferMisses();
+	
+	double getBufferHitRate();
+	
+	long getBufferEvictions();
+	
+	long getBufferBytes();
+	
+	long getPaintCount();
+	
+	double getPaintMeanMillis();
+	
+	double getPaintMaxMillis();
+	
+	/** The time from the start until the first scheme was painted, or -1 if none has been */
+	long getFirstPaintMillis();
+	
+	/** Sets the counters to zero, except the ones of the buffer and the shared fetches and the first paint */
+	void reset();
+}
@@ -0,0 +1,115 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads the ARGB colours of an image straight from its <tt>DataBuffer</tt>, for the image types that
+ * the schemes are decoded into. Other images are read through <tt>BufferedImage.getRGB</tt>.
+ */
+final class SchemePixels {
+	
+	private static final int INT_ARGB = 0, INT_RGB = 1, BYTE_INDEXED = 2, BYTE_BGR = 3, BYTE_ABGR = 4, OTHER = 5;
+	
+	final int width;
+	final int height;
+	
+	private final BufferedImage image;
+	private final int type;
+	private final int stride;
+	private final int[] ints;
+	private final byte[] bytes;
+	private final int[] palette;
+	
+	SchemePixels(BufferedImage image) {
+		this.image = image;
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		
+		Raster raster = image.getRaster();
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		ColorModel colorModel = image.getColorModel();
+		
+		// subimages and buffers with offsets are rare enough to be read the slow way
+		boolean plain = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+				&& dataBuffer.getOffset() == 0 && dataBuffer.getNumBanks() == 1;
+		
+		int type = OTHER;
+		int stride = 0;
+		int[] ints = null;
+		byte[] bytes = null;
+		int[] palette = null;
+		
+		if (plain && dataBuffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel) {
+			if (image.getType() == BufferedImage.TYPE_INT_ARGB) type = INT_ARGB;
+			else if (image.getType() == BufferedImage.TYPE_INT_RGB) type = INT_RGB;
+			
+			ints = ((DataBufferInt) dataBuffer).getData();
+			stride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+			
+		} else if (plain && dataBuffer instanceof DataBufferByte && sampleModel instanceof ComponentSampleModel) {
+			bytes = ((DataBufferByte) dataBuffer).getData();
+			
+			if (image.getType() == BufferedImage.TYPE_BYTE_INDEXED && colorModel instanceof IndexColorModel) {
+				type = BYTE_INDEXED;
+				stride = ((ComponentSampleModel) sampleModel).getScanlineStride();
+				
+				IndexColorModel icm = (IndexColorModel) colorModel;
+				palette = new int[256];
+				icm.getRGBs(palette);
+				
+			} else if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+				type = BYTE_BGR;
+				stride = ((ComponentSampleModel) sampleModel).getScanlineStride();
+			} else if (image.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+				type = BYTE_ABGR;
+				stride = ((ComponentSampleModel) sampleModel).getScanlineStride();
+			}
+		}
+		
+		this.type = type;
+		this.stride = stride;
+		this.ints = ints;
+		this.bytes = bytes;
+		this.palette = palette;
+	}
+	
+	/** Gets the ARGB colour at (<tt>x</tt>, <tt>y</tt>), like <tt>BufferedImage.getRGB</tt> */
+	int rgb(int x, int y) {
+		switch (type) {
+			case INT_ARGB:
+				return ints[y * stride + x];
+			case INT_RGB:
+				return 0xff000000 | ints[y * stride + x];
+			case BYTE_INDEXED:
+				return palette[bytes[y * stride + x] & 0xff];
+			case BYTE_BGR: {
+				int i = y * stride + x * 3;
+				return 0xff000000 | (bytes[i + 2] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i] & 0xff);
+			}
+			case BYTE_ABGR: {
+				int i = y * stride + x * 4;
+				return (bytes[i] & 0xff) << 24 | (bytes[i + 3] & 0xff) << 16 | (bytes[i + 2] & 0xff) << 8 | (bytes[i + 1] & 0xff);
+			}
+			default:
+				return image.getRGB(x, y);
+		}
+	}
+	
+	/** Reads the colours of row <tt>y</tt> from <tt>x0</tt> (inclusive) to <tt>x1</tt> (exclusive) into <tt>row</tt> */
+	int[] row(int y, int x0, int x1, int[] row) {
+		if (type == OTHER) return image.getRGB(x0, y, x1 - x0, 1, row, 0, x1 - x0);
+		
+		for (int x = x0; x < x1; x++)
+			row[x - x0] = rgb(x, y);
+		
+		return row;
+	}
+}
@@ -0,0 +1,168 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Answers <tt>schedulegenerator.aspx</tt> requests from a shared disk cache, so that the computers in a
+ * school can fetch their schemes from one place instead of all asking novasoftware for the same images.
+ * Requests for an image that is already being fetched wait for that fetch instead of starting another.
+ * Clients use it by setting <tt>server</tt> in their properties to the address of the proxy.
+ *
+ * <pre>
+ * java Schema --serve [--port 8080] [--upstream url] [--cache dir] [--cache-size MB] [--max-age hours] [--threads T]
+ * </pre>
+ */
+class SchemeProxy {
+	
+	static final String PATH = "/ImgGen/schedulegenerator.aspx";
+	
+	private final SchemeClient client;
+	private final SchemeDiskCache diskCache;
+	
+	/** The fetches from upstream that are running, which requests for the same image wait for */
+	private final SchemeFetches fetches = new SchemeFetches(this::download);
+	
+	SchemeProxy(SchemeClient client, SchemeDiskCache diskCache) {
+		this.client = client;
+		this.diskCache = diskCache;
+	}
+	
+	/** Runs the proxy with the arguments after <tt>--serve</tt> */
+	static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		
+		int port = 8080;
+		String cache = "proxy-cache";
+		long cacheSize = 500;
+		long maxAge = 1;
+		int threads = 32;
+		
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--port": port = Integer.parseInt(args[++i]); break;
+				case "--upstream": Schema.setServer(args[++i]); break;
+				case "--cache": cache = args[++i]; break;
+				case "--cache-size": cacheSize = Long.parseLong(args[++i]); break;
+				case "--max-age": maxAge = Long.parseLong(args[++i]); break;
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				default:
+					System.err.println("Okänt argument: " + args[i]);
+					System.exit(2);
+			}
+		}
+		
+		// the fetches get their own threads, so that they never wait for requests that wait for them
+		ExecutorService fetchPool = Executors.newFixedThreadPool(Math.max(1, threads));
+		ExecutorService requestPool = Executors.newFixedThreadPool(Math.max(1, threads));
+		SchemeClient client = new SchemeClient(fetchPool, threads, 10000, 3, new SchemeClient.StatusListener() {
+			@Override
+			public void failed(Throwable cause, long retryIn) {
+				System.err.println(cause + (retryIn < 0 ? "" : ", försöker igen om " + retryIn + " ms"));
+			}
+			
+			@Override
+			public void recovered() {}
+		});
+		SchemeDiskCache diskCache = new SchemeDiskCache(
+				Paths.get(cache), cacheSize * 1024 * 1024, maxAge * 60 * 60 * 1000);
+		
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext(PATH, new SchemeProxy(client, diskCache)::handle);
+		server.setExecutor(requestPool);
+		server.start();
+		
+		System.out.println("Serving schemes on port " + server.getAddress().getPort() + PATH);
+	}
+	
+	/** Parses the request and answers it when the image is there, without waiting for it on the request thread */
+	private void handle(HttpExchange exchange) {
+		SchemeKey key;
+		try {
+			Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+			int week = Integer.parseInt(query.get("week"));
+			key = new SchemeKey(
+					query.get("id"),
+					Schema.yearOfWeek(week),
+					week,
+					Integer.parseInt(query.get("day")),
+					Integer.parseInt(query.get("width")),
+					Integer.parseInt(query.get("height")));
+			
+			if (key.id == null || key.id.isEmpty()) throw new IllegalArgumentException("No id");
+		} catch (RuntimeException e) { // a parameter is missing or isn't a number
+			respond(exchange, 400, null);
+			return;
+		}
+		
+		get(key).whenComplete((scheme, e) -> {
+			if (e != null) {
+				System.err.println(key + ": " + (e instanceof CompletionException ? e.getCause() : e));
+				respond(exchange, 502, null);
+			} else {
+				respond(exchange, 200, scheme);
+			}
+		});
+	}
+	
+	private static void respond(HttpExchange exchange, int status, byte[] scheme) {
+		try {
+			if (scheme == null) {
+				exchange.sendResponseHeaders(status, -1);
+				return;
+			}
+			
+			exchange.getResponseHeaders().set("Content-Type", "image/png");
+			exchange.sendResponseHeaders(status, scheme.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(scheme);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/** Gets the image from the disk cache, or from upstream by the fetch that is running or a new one */
+	CompletableFuture<byte[]> get(SchemeKey key) {
+		byte[] cached = diskCache.get(key);
+		if (cached != null) return CompletableFuture.completedFuture(cached);
+		
+		return fetches.fetch(key);
+	}
+	
+	/** Fetches the image from upstream, putting it on disk before anyone stops waiting for it */
+	private CompletableFuture<byte[]> download(SchemeKey key) {
+		return client.fetch(Schema.schemeURL(key.id, key.week, key.day, key.width, key.height)).thenApply(data -> {
+			diskCache.put(key, data);
+			return data;
+		});
+	}
+	
+	private static Map<String, String> query(String rawQuery) {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery == null) return query;
+		
+		for (String parameter : rawQuery.split("&")) {
+			int i = parameter.indexOf('=');
+			if (i < 0) continue;
+			query.put(
+					URLDecoder.decode(parameter.substring(0, i), StandardCharsets.UTF_8),
+					URLDecoder.decode(parameter.substring(i + 1), StandardCharsets.UTF_8));
+		}
+		
+		return query;
+	}
+}
@@ -0,0 +1,186 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Runs the requests for loading schemes on a pool of threads, the most important ones first.
+ * A request that does the same thing as one that is waiting is merged into it instead of being
+ * queued again, and a request is never run while another one doing the same thing is running.
+ */
+class SchemeScheduler {
+	
+	/** How important a request is, the ones first in the list are run first */
+	enum Priority {
+		/** Needed for what is shown right now */
+		VISIBLE,
+		/** Needed as soon as the user goes to the next or the last week */
+		NEIGHBOUR,
+		/** Might be needed later on */
+		PREFETCH,
+		/** Checks if something already loaded has changed, run one at a time when nothing else is waiting */
+		BACKGROUND
+	}
+	
+	abstract static class Request {
+		
+		Priority priority;
+		
+		Request(Priority priority) {
+			this.priority = priority;
+		}
+		
+		/** Identifies the requests that do the same thing, of which only one has to be run */
+		abstract Object coalesceKey();
+		
+		/** Merges a newer request doing the same thing into this one, which is still waiting */
+		void merge(Request newer) {
+			if (newer.priority.compareTo(priority) < 0) priority = newer.priority;
+		}
+		
+		/** Checks if the request isn't needed anymore, for example because the shown id has changed */
+		boolean isStale() {
+			return false;
+		}
+		
+		abstract void run();
+	}
+	
+	private static final class Entry implements Comparable<Entry> {
+		final Request request;
+		final long sequence;
+		/** When the request was queued, in <tt>System.nanoTime</tt> */
+		final long submitted = System.nanoTime();
+		
+		Entry(Request request, long sequence) {
+			this.request = request;
+			this.sequence = sequence;
+		}
+		
+		@Override
+		public int compareTo(Entry o) {
+			int c = request.priority.compareTo(o.request.priority);
+			return c != 0 ? c : Long.compare(sequence, o.sequence);
+		}
+	}
+	
+	/** The waiting requests, most important first. Guarded by <tt>this</tt> */
+	private final TreeSet<Entry> queue = new TreeSet<>();
+	private final Map<Object, Entry> waiting = new HashMap<>();
+	/** The coalesce keys of the running requests, with their priorities */
+	private final Map<Object, Priority> running = new HashMap<>();
+	private long sequence;
+	
+	private final SchemeMetrics metrics;
+	
+	/** Starts <tt>threads</tt> threads that run the requests, recording how long they wait in <tt>metrics</tt> */
+	SchemeScheduler(int threads, SchemeMetrics metrics) {
+		this.metrics = metrics;
+		
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread(this::work, "scheme-loader-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+	
+	/** Queues the request, or merges it into a waiting request that does the same thing */
+	synchronized void submit(Request request) {
+		Object key = request.coalesceKey();
+		Entry entry = waiting.get(key);
+		
+		if (entry != null) {
+			queue.remove(entry); // the priority might change, so it has to be sorted in again
+			entry.request.merge(request);
+			queue.add(entry);
+		} else {
+			entry = new Entry(request, sequence++);
+			waiting.put(key, entry);
+			queue.add(entry);
+		}
+		
+		notifyAll();
+	}
+	
+	/** Removes the waiting requests that <tt>stale</tt> matches */
+	synchronized void cancelIf(Predicate<Request> stale) {
+		Iterator<Entry> it = queue.iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (stale.test(entry.request)) {
+				it.remove();
+				waiting.remove(entry.request.coalesceKey());
+			}
+		}
+	}
+	
+	/** Checks if any request at least as important as <tt>priority</tt> is waiting or running */
+	synchronized boolean isBusy(Priority priority) {
+		for (Entry entry : queue)
+			if (entry.request.priority.compareTo(priority) <= 0) return true;
+		
+		for (Priority runningPriority : running.values())
+			if (runningPriority.compareTo(priority) <= 0) return true;
+		
+		return false;
+	}
+	
+	synchronized int waitingCount() {
+		return queue.size();
+	}
+	
+	/**
+	 * Takes the most important request that isn't already running, waiting until there is one.
+	 * Prefetches are only taken when nothing visible is waiting or running, and background requests
+	 * when nothing else is and no other background request is running.
+	 */
+	private synchronized Entry take() throws InterruptedException {
+		for (;;) {
+			boolean visibleWork = isBusy(Priority.VISIBLE);
+			
+			for (Entry entry : queue) {
+				Object key = entry.request.coalesceKey();
+				if (running.containsKey(key)) continue;
+				if (visibleWork && entry.request.priority == Priority.PREFETCH) break;
+				if (entry.request.priority == Priority.BACKGROUND
+						&& (isBusy(Priority.PREFETCH) || running.containsValue(Priority.BACKGROUND))) break;
+				
+				queue.remove(entry);
+				waiting.remove(key);
+				running.put(key, entry.request.priority);
+				return entry;
+			}
+			
+			wait();
+		}
+	}
+	
+	private synchronized void finished(Entry entry) {
+		running.remove(entry.request.coalesceKey());
+		notifyAll();
+	}
+	
+	private void work() {
+		//noinspection InfiniteLoopStatement
+		for (;;) {
+			Entry entry;
+			try {
+				entry = take();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				continue;
+			}
+			
+			metrics.dequeued(entry.request, System.nanoTime() - entry.submitted, waitingCount());
+			
+			try {
+				if (!entry.request.isStale()) entry.request.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				finished(entry);
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Fetches single days to put into week schemes, so that a day can be shown or refreshed without
+ * fetching the whole week. A day is fetched as wide as its column in the week and so much higher
+ * that the part below the date label is as high as in the week, which makes it fit pixel for pixel.
+ */
+final class SchemeTiles {
+	
+	/** The y position where the lessons begin in the scheme of a single day, which has a smaller date label */
+	static final int TIME_START_Y = 23;
+	
+	private SchemeTiles() {}
+	
+	/** Gets the key of day <tt>day</tt> of the week scheme <tt>week</tt>, or null if the geometry has no such day */
+	static SchemeKey tileKey(SchemeKey week, SchemeGeometry geometry, int day) {
+		if (geometry.invalid || day < 0 || day >= geometry.dayCount()) return null;
+		
+		int width = geometry.separators[day + 1] - geometry.separators[day] - 1;
+		int height = week.height - geometry.timeStartY + TIME_START_Y;
+		if (width <= 0 || height <= TIME_START_Y + 1) return null;
+		
+		return new SchemeKey(week.id, week.year, week.week, 1 << day, width, height);
+	}
+	
+	/** Checks if <tt>tile</tt> looks like expected, since it's put into the week without being scaled */
+	static boolean fits(SchemeImage tile, SchemeGeometry week, int day) {
+		return !tile.geometry.invalid
+				&& tile.geometry.timeStartY == TIME_START_Y
+				&& tile.image.getWidth() == week.separators[day + 1] - week.separators[day] - 1
+				&& tile.image.getHeight() - TIME_START_Y == week.height - week.timeStartY;
+	}
+	
+	/** Checks if the lessons of <tt>tile</tt> look exactly like day <tt>day</tt> of <tt>week</tt> */
+	static boolean isSame(SchemeImage week, SchemeImage tile, int day) {
+		SchemePixels weekPixels = new SchemePixels(week.image);
+		SchemePixels tilePixels = new SchemePixels(tile.image);
+		
+		int x0 = week.geometry.separators[day] + 1;
+		int width = tilePixels.width;
+		int[] weekRow = new int[width];
+		int[] tileRow = new int[width];
+		
+		for (int y = 1; y < tilePixels.height - TIME_START_Y; y++) {
+			weekPixels.row(week.geometry.timeStartY + y, x0, x0 + width, weekRow);
+			tilePixels.row(TIME_START_Y + y, 0, width, tileRow);
+			if (!Arrays.equals(weekRow, tileRow)) return false;
+		}
+		return true;
+	}
+	
+	/** Draws the lessons of <tt>tile</tt> over day <tt>day</tt> in <tt>target</tt>, being a copy of a week with <tt>geometry</tt> */
+	static void paste(BufferedImage target, SchemeGeometry geometry, SchemeImage tile, int day) {
+		int x = geometry.separators[day] + 1;
+		int y = geometry.timeStartY + 1;
+		int width = tile.image.getWidth();
+		int height = tile.image.getHeight() - TIME_START_Y - 1;
+		
+		Graphics2D g2d = target.createGraphics();
+		g2d.drawImage(tile.image, x, y, x + width, y + height, 0, TIME_START_Y + 1, width, TIME_START_Y + 1 + height, null);
+		g2d.dispose();
+	}
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The settings, kept in a properties file. Changes are written on a background thread a moment after
+ * they are made, all changes made in the meantime in one write, so that changing a setting never waits
+ * for the disk. The file is written next to the old one and then moved over it, so that a crash never
+ * leaves half a file. What hasn't been written yet is written when the program exits.
+ */
+class SettingsStore {
+	
+	private final Path file;
+	private final Path temp;
+	private final long delay;
+	
+	/** Guarded by <tt>this</tt> */
+	private final Properties properties = new Properties();
+	private boolean writeScheduled;
+	
+	/** Held while writing, so that the writes use the temporary file one at a time and in order */
+	private final Object writeLock = new Object();
+	
+	private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "settings-writer");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+	
+	/**
+	 * Reads the settings in <tt>file</tt>, if it exists
+	 *
+	 * @param delay the number of milliseconds to wait for more changes before writing
+	 */
+	SettingsStore(Path file, long delay) {
+		this.file = file;
+		this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+		this.delay = delay;
+		
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		} catch (NoSuchFileException e) {
+			// there are no stored settings yet
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "settings-flush"));
+	}
+	
+	synchronized String getProperty(String key) {
+		return properties.getProperty(key);
+	}
+	
+	synchronized String getProperty(String key, String defaultValue) {
+		return properties.getProperty(key, defaultValue);
+	}
+	
+	/**
+	 * Changes the settings together, so that the file never has some of them changed but not the others.
+	 * They are written to the file a moment later.
+	 */
+	synchronized void setProperties(Map<String, String> changes) {
+		boolean changed = false;
+		for (Map.Entry<String, String> change : changes.entrySet()) {
+			Object old = properties.setProperty(change.getKey(), change.getValue());
+			changed |= !change.getValue().equals(old);
+		}
+		
+		if (changed && !writeScheduled) {
+			writeScheduled = true;
+			writer.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/** Writes the changes that haven't been written yet, if there are any */
+	void flush() {
+		synchronized (writeLock) {
+			Properties snapshot;
+			synchronized (this) {
+				if (!writeScheduled) return;
+				writeScheduled = false;
+				
+				snapshot = new Properties();
+				snapshot.putAll(properties);
+			}
+			
+			try {
+				// on the disk before it replaces the old file, so that a power loss can't leave it empty
+				try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					snapshot.store(Channels.newOutputStream(channel), null);
+					channel.force(true);
+				}
+				
+				try {
+					Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+import java.time.LocalDate;
+
+/**
+ * What is shown, published as a whole so that painting always sees an id, a week and a scheme
+ * that belong together. A new state is made for every change.
+ */
+final class ViewState {
+	
+	/** The shown id */
+	final String id;
+	/** A date in the shown week */
+	final LocalDate date;
+	/** The key of the shown scheme, or null if nothing has been shown yet */
+	final SchemeKey key;
+	/** The shown scheme with its geometry, or null if it hasn't been loaded yet */
+	final SchemeImage scheme;
+	
+	ViewState(String id, LocalDate date, SchemeKey key, SchemeImage scheme) {
+		this.id = id;
+		this.date = date;
+		this.key = key;
+		this.scheme = scheme;
+	}
+	
+	ViewState withId(String id) {
+		return new ViewState(id, date, key, scheme);
+	}
+	
+	ViewState withDate(LocalDate date) {
+		return new ViewState(id, date, key, scheme);
+	}
+	
+	ViewState withScheme(SchemeKey key, SchemeImage scheme) {
+		return new ViewState(id, date, key, scheme);
+	}
+}